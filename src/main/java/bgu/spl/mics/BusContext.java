@@ -0,0 +1,52 @@
+package bgu.spl.mics;
+
+/**
+ * Binds a {@link MessageBus} to the current thread.
+ * A {@link MicroService} uses the bus bound to the thread that constructs it, so several independent buses
+ * can serve services in the same JVM. Threads with no bound bus use the singleton {@link MessageBusImpl}.
+ */
+public final class BusContext {
+
+    private static final ThreadLocal<MessageBus> bound = new ThreadLocal<MessageBus>();
+
+    private BusContext() {}
+
+    /**
+     * @return the bus bound to the current thread, or the singleton {@link MessageBusImpl} if there is none
+     */
+    public static MessageBus current() {
+        MessageBus bus = bound.get();
+        if (bus == null)
+            return MessageBusImpl.getInstance();
+        return bus;
+    }
+
+    /**
+     * Binds {@code bus} to the current thread, until {@link #unbind()} or {@link #restore(MessageBus)} is called
+     * @param bus the bus the services constructed by this thread should use
+     * @return the bus previously bound to the current thread, or null if there was none
+     */
+    public static MessageBus bind(MessageBus bus) {
+        MessageBus previous = bound.get();
+        bound.set(bus);
+        return previous;
+    }
+
+    /**
+     * Binds the bus returned by an earlier {@link #bind(MessageBus)} to the current thread again
+     * @param previous the bus to bind, or null to restore the default bus
+     */
+    public static void restore(MessageBus previous) {
+        if (previous == null)
+            bound.remove();
+        else
+            bound.set(previous);
+    }
+
+    /**
+     * Restores the default bus of the current thread
+     */
+    public static void unbind() {
+        bound.remove();
+    }
+}
@@ -0,0 +1,84 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link MessageBus} counting the events and broadcasts sent through another bus.
+ * The messages themselves are handled by the wrapped bus as usual.
+ */
+public class CountingMessageBus implements MessageBus {
+
+    private final MessageBus bus;
+    private final LongAdder sent;
+
+    /**
+     * @param bus the bus that handles the messages
+     * @param sent the counter every sent event and broadcast is added to
+     */
+    public CountingMessageBus(MessageBus bus, LongAdder sent) {
+        this.bus = bus;
+        this.sent = sent;
+    }
+
+    @Override
+    public boolean isRegistered(MicroService ms) {
+        return bus.isRegistered(ms);
+    }
+
+    @Override
+    public <T> boolean isSubEvent(Class<? extends Event<T>> type, MicroService m) {
+        return bus.isSubEvent(type, m);
+    }
+
+    @Override
+    public boolean isSubBroadcast(Class<? extends Broadcast> type, MicroService m) {
+        return bus.isSubBroadcast(type, m);
+    }
+
+    @Override
+    public <T> Future<T> getFuture(Event<T> e) {
+        return bus.getFuture(e);
+    }
+
+    @Override
+    public <T> void subscribeEvent(Class<? extends Event<T>> type, MicroService m) {
+        bus.subscribeEvent(type, m);
+    }
+
+    @Override
+    public void subscribeBroadcast(Class<? extends Broadcast> type, MicroService m) {
+        bus.subscribeBroadcast(type, m);
+    }
+
+    @Override
+    public <T> void complete(Event<T> e, T result) {
+        bus.complete(e, result);
+    }
+
+    @Override
+    public void sendBroadcast(Broadcast b) {
+        sent.increment();
+        bus.sendBroadcast(b);
+    }
+
+    @Override
+    public <T> Future<T> sendEvent(Event<T> e) {
+        sent.increment();
+        return bus.sendEvent(e);
+    }
+
+    @Override
+    public void register(MicroService m) {
+        bus.register(m);
+    }
+
+    @Override
+    public void unregister(MicroService m) {
+        bus.unregister(m);
+    }
+
+    @Override
+    public Message awaitMessage(MicroService m) throws InterruptedException {
+        return bus.awaitMessage(m);
+    }
+}
@@ -0,0 +1,14 @@
+package bgu.spl.mics;
+
+/**
+ * A {@link Broadcast} meant for a single {@link MicroService}. The message-bus delivers it only to
+ * {@link #getRecipient()}, instead of to every subscriber of its type, so waking up one service out of many
+ * costs a single enqueue.
+ */
+public interface DirectedBroadcast extends Broadcast {
+
+    /**
+     * @return the {@link MicroService} to deliver the broadcast to, it should subscribe to the broadcast type
+     */
+    MicroService getRecipient();
+}
@@ -0,0 +1,404 @@
+package bgu.spl.mics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives the traffic recorded in a {@link MessageJournal} into a {@link MessageBus}, so changes to a bus can be
+ * measured against recorded runs.
+ * <p>
+ * Every recorded service which received messages is replaced by a stand-in service, subscribed to the types it
+ * received in the recording. It completes every event it receives and does nothing else. A single driver
+ * service then sends a new message of the recorded type for every recorded send, in the recorded order, either
+ * at the recorded times or as fast as the bus takes them. The messages are created through their public
+ * constructors with empty arguments, so only their types and their order are replayed, not their contents.
+ * <p>
+ * Usage: {@code JournalReplay <journal> [-max]}
+ */
+public class JournalReplay {
+
+    private final Map<Integer, String> typeNames = new HashMap<Integer, String>();
+    private final Map<Integer, String> serviceNames = new HashMap<Integer, String>();
+    private long declaredRecords = -1;
+    private int records = 0;
+    private long[] times = new long[1024];
+    private int[] kinds = new int[1024];
+    private int[] types = new int[1024];
+    private int[] services = new int[1024];
+
+    private JournalReplay() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: JournalReplay <journal> [-max]");
+            return;
+        }
+        boolean maxSpeed = args.length > 1 && args[1].equals("-max");
+        Result result = replay(new File(args[0]), !maxSpeed, new MessageBusImpl());
+        System.out.println(result);
+    }
+
+    /**
+     * Replays a journal into a bus
+     * @param journal the path the journal was created with
+     * @param recordedSpeed true to send every message at its recorded time, false to send as fast as possible
+     * @param bus the bus to replay into, it should not be used by other services during the replay
+     * @return the counters and the timing of the replay
+     */
+    public static Result replay(File journal, boolean recordedSpeed, MessageBus bus)
+            throws IOException, InterruptedException {
+        JournalReplay replay = new JournalReplay();
+        replay.read(journal);
+        return replay.run(recordedSpeed, bus);
+    }
+
+    private void read(File journal) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(MessageJournal.namesFile(journal)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ", 3);
+                if (fields[0].equals("T") && fields.length == 3)
+                    typeNames.put(Integer.parseInt(fields[1]), fields[2]);
+                else if (fields[0].equals("S") && fields.length == 3)
+                    serviceNames.put(Integer.parseInt(fields[1]), fields[2]);
+                else if (fields[0].equals("R") && fields.length == 2)
+                    declaredRecords = Long.parseLong(fields[1]);
+            }
+        }
+        for (int index = 0; MessageJournal.segmentFile(journal, index).exists(); index++) {
+            if (!readSegment(MessageJournal.segmentFile(journal, index)))
+                break;
+        }
+    }
+
+    /**
+     * @return false iff the end of the journal was reached in this segment
+     */
+    private boolean readSegment(File file) throws IOException {
+        try (RandomAccessFile segmentFile = new RandomAccessFile(file, "r")) {
+            MappedByteBuffer segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    segmentFile.length());
+            for (int offset = 0; offset + MessageJournal.RECORD_SIZE <= segment.capacity();
+                 offset += MessageJournal.RECORD_SIZE) {
+                if (declaredRecords >= 0 && records >= declaredRecords)
+                    return false;
+                int kind = segment.getInt(offset + 8);
+                if (kind == 0) {
+                    if (declaredRecords < 0)
+                        return false;
+                    continue; // a slot reserved while the journal was being closed
+                }
+                if (records == times.length) {
+                    times = Arrays.copyOf(times, records * 2);
+                    kinds = Arrays.copyOf(kinds, records * 2);
+                    types = Arrays.copyOf(types, records * 2);
+                    services = Arrays.copyOf(services, records * 2);
+                }
+                times[records] = segment.getLong(offset);
+                kinds[records] = kind;
+                types[records] = segment.getInt(offset + 12);
+                services[records] = segment.getInt(offset + 16);
+                records++;
+            }
+        }
+        return true;
+    }
+
+    private Result run(boolean recordedSpeed, MessageBus bus) throws InterruptedException {
+        Map<Integer, MessageFactory> factories = new HashMap<Integer, MessageFactory>();
+        for (Map.Entry<Integer, String> type : typeNames.entrySet())
+            factories.put(type.getKey(), MessageFactory.of(type.getValue()));
+        // Every service subscribes to the types it received, as events or as broadcasts according to how they were sent
+        Set<Integer> eventTypes = new LinkedHashSet<Integer>();
+        Set<Integer> broadcastTypes = new LinkedHashSet<Integer>();
+        Map<Integer, Set<Integer>> received = new HashMap<Integer, Set<Integer>>();
+        for (int i = 0; i < records; i++) {
+            if (kinds[i] == MessageJournal.SEND_EVENT)
+                eventTypes.add(types[i]);
+            else if (kinds[i] == MessageJournal.SEND_BROADCAST)
+                broadcastTypes.add(types[i]);
+            else if (kinds[i] == MessageJournal.DISPATCH)
+                received.computeIfAbsent(services[i], s -> new LinkedHashSet<Integer>()).add(types[i]);
+        }
+        AtomicLong dispatched = new AtomicLong(0);
+        CountDownLatch ready = new CountDownLatch(received.size());
+        List<Thread> threads = new ArrayList<Thread>();
+        MessageBus previous = BusContext.bind(bus);
+        Driver driver;
+        try {
+            for (Map.Entry<Integer, Set<Integer>> service : received.entrySet()) {
+                List<Class<? extends Message>> events = new ArrayList<Class<? extends Message>>();
+                List<Class<? extends Message>> broadcasts = new ArrayList<Class<? extends Message>>();
+                for (int type : service.getValue()) {
+                    MessageFactory factory = factories.get(type);
+                    if (factory == null || !factory.isUsable())
+                        continue;
+                    if (eventTypes.contains(type))
+                        events.add(factory.getType());
+                    else if (broadcastTypes.contains(type))
+                        broadcasts.add(factory.getType());
+                }
+                String name = serviceNames.getOrDefault(service.getKey(), "Service " + service.getKey());
+                threads.add(new Thread(new StandIn(name, events, broadcasts, ready, dispatched), name + " Replay"));
+            }
+            driver = new Driver(recordedSpeed, factories, ready);
+        } finally {
+            BusContext.restore(previous);
+        }
+        for (Thread thread : threads)
+            thread.start();
+        Thread driverThread = new Thread(driver, "Replay Driver");
+        driverThread.start();
+        driverThread.join();
+        for (Thread thread : threads)
+            thread.join();
+        return new Result(driver.events, driver.broadcasts, driver.skipped, dispatched.get(), driver.elapsed,
+                records == 0 ? 0 : times[records - 1] - times[0]);
+    }
+
+    /**
+     * Sent once the driver sent every recorded message, the stand-in services terminate when they receive it
+     */
+    private static class ReplayDone implements Broadcast {}
+
+    /**
+     * A stand-in for a recorded service
+     */
+    private static class StandIn extends MicroService {
+
+        private final List<Class<? extends Message>> events;
+        private final List<Class<? extends Message>> broadcasts;
+        private final CountDownLatch ready;
+        private final AtomicLong dispatched;
+
+        StandIn(String name, List<Class<? extends Message>> events, List<Class<? extends Message>> broadcasts,
+                CountDownLatch ready, AtomicLong dispatched) {
+            super(name);
+            this.events = events;
+            this.broadcasts = broadcasts;
+            this.ready = ready;
+            this.dispatched = dispatched;
+        }
+
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        protected void initialize() {
+            for (Class type : events) {
+                subscribeEvent(type, (Callback<Event>) e -> {
+                    dispatched.incrementAndGet();
+                    complete(e, null);
+                });
+            }
+            for (Class type : broadcasts)
+                subscribeBroadcast(type, b -> {dispatched.incrementAndGet();});
+            subscribeBroadcast(ReplayDone.class, b -> {terminate();});
+            ready.countDown();
+        }
+    }
+
+    /**
+     * Sends the recorded messages once every stand-in service subscribed
+     */
+    private class Driver extends MicroService {
+
+        private final boolean recordedSpeed;
+        private final Map<Integer, MessageFactory> factories;
+        private final CountDownLatch ready;
+        private long events = 0;
+        private long broadcasts = 0;
+        private long skipped = 0;
+        private long elapsed = 0; // in nanoseconds
+
+        Driver(boolean recordedSpeed, Map<Integer, MessageFactory> factories, CountDownLatch ready) {
+            super("Replay Driver");
+            this.recordedSpeed = recordedSpeed;
+            this.factories = factories;
+            this.ready = ready;
+        }
+
+        @Override
+        protected void initialize() {
+            try {
+                ready.await();
+                long start = System.nanoTime();
+                long firstTime = -1;
+                for (int i = 0; i < records; i++) {
+                    if (kinds[i] != MessageJournal.SEND_EVENT && kinds[i] != MessageJournal.SEND_BROADCAST)
+                        continue;
+                    MessageFactory factory = factories.get(types[i]);
+                    Message message = factory == null ? null : factory.create();
+                    if (message == null) {
+                        skipped++;
+                        continue;
+                    }
+                    if (firstTime < 0)
+                        firstTime = times[i];
+                    if (recordedSpeed) {
+                        long delay = start + (times[i] - firstTime) - System.nanoTime();
+                        if (delay > 0)
+                            TimeUnit.NANOSECONDS.sleep(delay);
+                    }
+                    if (message instanceof Event) {
+                        sendEvent((Event<?>) message);
+                        events++;
+                    }
+                    else {
+                        sendBroadcast((Broadcast) message);
+                        broadcasts++;
+                    }
+                }
+                elapsed = System.nanoTime() - start;
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+            }
+            sendBroadcast(new ReplayDone());
+            terminate();
+        }
+    }
+
+    /**
+     * Creates messages of a recorded type, through the public constructor that accepts empty arguments
+     */
+    private static class MessageFactory {
+
+        private Class<? extends Message> type;
+        private Constructor<?> constructor;
+        private Object[] arguments;
+
+        static MessageFactory of(String className) {
+            MessageFactory factory = new MessageFactory();
+            try {
+                Class<?> type = Class.forName(className);
+                if (!Message.class.isAssignableFrom(type))
+                    return factory;
+                factory.type = type.asSubclass(Message.class);
+                for (Constructor<?> constructor : type.getConstructors()) {
+                    Object[] arguments = emptyArguments(constructor.getParameterTypes());
+                    try {
+                        constructor.newInstance(arguments);
+                        factory.constructor = constructor;
+                        factory.arguments = arguments;
+                        break;
+                    } catch (ReflectiveOperationException | RuntimeException exc) {
+                        // try the next constructor
+                    }
+                }
+            } catch (ClassNotFoundException exc) {
+                System.err.println("The recorded message type " + className + " is not available, skipping it");
+            }
+            return factory;
+        }
+
+        private static Object[] emptyArguments(Class<?>[] parameters) {
+            Object[] arguments = new Object[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                Class<?> parameter = parameters[i];
+                if (parameter == boolean.class)
+                    arguments[i] = false;
+                else if (parameter == char.class)
+                    arguments[i] = '\0';
+                else if (parameter.isPrimitive())
+                    arguments[i] = zero(parameter);
+                else if (parameter.isAssignableFrom(ArrayList.class))
+                    arguments[i] = new ArrayList<Object>();
+                else if (parameter == String.class)
+                    arguments[i] = "";
+            }
+            return arguments;
+        }
+
+        private static Object zero(Class<?> primitive) {
+            if (primitive == int.class) return 0;
+            if (primitive == long.class) return 0L;
+            if (primitive == double.class) return 0.0;
+            if (primitive == float.class) return 0.0f;
+            if (primitive == short.class) return (short) 0;
+            return (byte) 0;
+        }
+
+        boolean isUsable() {return constructor != null;}
+
+        Class<? extends Message> getType() {return type;}
+
+        /**
+         * @return a new message, or null if the type has no usable constructor
+         */
+        Message create() {
+            if (constructor == null)
+                return null;
+            try {
+                return (Message) constructor.newInstance(arguments);
+            } catch (ReflectiveOperationException | RuntimeException exc) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The counters and the timing of a replay
+     */
+    public static class Result {
+
+        private final long events;
+        private final long broadcasts;
+        private final long skipped;
+        private final long dispatched;
+        private final long elapsed;
+        private final long recordedSpan;
+
+        public Result(long events, long broadcasts, long skipped, long dispatched, long elapsed, long recordedSpan) {
+            this.events = events;
+            this.broadcasts = broadcasts;
+            this.skipped = skipped;
+            this.dispatched = dispatched;
+            this.elapsed = elapsed;
+            this.recordedSpan = recordedSpan;
+        }
+
+        public long getEvents() {return events;}
+
+        public long getBroadcasts() {return broadcasts;}
+
+        public long getSkipped() {return skipped;}
+
+        public long getDispatched() {return dispatched;}
+
+        /**
+         * @return the time it took to send all the messages, in nanoseconds
+         */
+        public long getElapsed() {return elapsed;}
+
+        /**
+         * @return the time between the first and the last record of the journal, in nanoseconds
+         */
+        public long getRecordedSpan() {return recordedSpan;}
+
+        @Override
+        public String toString() {
+            double seconds = elapsed / 1e9;
+            return String.format("Replayed %d events and %d broadcasts (%d skipped), %d dispatches, in %.3f ms "
+                            + "(%.0f messages/s), recorded span %.3f ms",
+                    events, broadcasts, skipped, dispatched, elapsed / 1e6,
+                    seconds > 0 ? (events + broadcasts) / seconds : 0.0, recordedSpan / 1e6);
+        }
+    }
+}
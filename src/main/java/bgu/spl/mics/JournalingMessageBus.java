@@ -0,0 +1,89 @@
+package bgu.spl.mics;
+
+/**
+ * A {@link MessageBus} recording the traffic of another bus in a {@link MessageJournal}.
+ * Every sent event and broadcast, every completed event and every message dispatched to a service is appended
+ * to the journal, the messages themselves are handled by the wrapped bus as usual.
+ */
+public class JournalingMessageBus implements MessageBus {
+
+    private final MessageBus bus;
+    private final MessageJournal journal;
+
+    /**
+     * @param bus the bus that handles the messages
+     * @param journal the journal the traffic is appended to
+     */
+    public JournalingMessageBus(MessageBus bus, MessageJournal journal) {
+        this.bus = bus;
+        this.journal = journal;
+    }
+
+    public MessageJournal getJournal() {return journal;}
+
+    @Override
+    public boolean isRegistered(MicroService ms) {
+        return bus.isRegistered(ms);
+    }
+
+    @Override
+    public <T> boolean isSubEvent(Class<? extends Event<T>> type, MicroService m) {
+        return bus.isSubEvent(type, m);
+    }
+
+    @Override
+    public boolean isSubBroadcast(Class<? extends Broadcast> type, MicroService m) {
+        return bus.isSubBroadcast(type, m);
+    }
+
+    @Override
+    public <T> Future<T> getFuture(Event<T> e) {
+        return bus.getFuture(e);
+    }
+
+    @Override
+    public <T> void subscribeEvent(Class<? extends Event<T>> type, MicroService m) {
+        bus.subscribeEvent(type, m);
+    }
+
+    @Override
+    public void subscribeBroadcast(Class<? extends Broadcast> type, MicroService m) {
+        bus.subscribeBroadcast(type, m);
+    }
+
+    @Override
+    public <T> void complete(Event<T> e, T result) {
+        journal.append(MessageJournal.COMPLETE, e, null);
+        bus.complete(e, result);
+    }
+
+    @Override
+    public void sendBroadcast(Broadcast b) {
+        journal.append(MessageJournal.SEND_BROADCAST, b, null);
+        bus.sendBroadcast(b);
+    }
+
+    @Override
+    public <T> Future<T> sendEvent(Event<T> e) {
+        journal.append(MessageJournal.SEND_EVENT, e, null);
+        return bus.sendEvent(e);
+    }
+
+    @Override
+    public void register(MicroService m) {
+        journal.serviceId(m);
+        bus.register(m);
+    }
+
+    @Override
+    public void unregister(MicroService m) {
+        bus.unregister(m);
+    }
+
+    @Override
+    public Message awaitMessage(MicroService m) throws InterruptedException {
+        Message message = bus.awaitMessage(m);
+        journal.append(MessageJournal.DISPATCH, message, m);
+        return message;
+    }
+}
@@ -82,14 +82,17 @@ public class MessageBusImpl implements MessageBus {
 
 	@Override
 	public <T> void complete(Event<T> e, T result) {
-		if (futures.containsKey(e)) {
-			Future<T> future = futures.get(e);
+		Future<T> future = futures.remove(e);
+		if (future != null)
 			future.resolve(result);
-		}
 	}
 
 	@Override
 	public void sendBroadcast(Broadcast b) {
+		if (b instanceof DirectedBroadcast) {
+			deliver(((DirectedBroadcast) b).getRecipient(), b);
+			return;
+		}
 		if (broadcasts.containsKey(b.getClass())) {
 			ConcurrentLinkedDeque<MicroService> subs = broadcasts.get(b.getClass());
 			synchronized (subs) {
@@ -108,7 +111,19 @@ public class MessageBusImpl implements MessageBus {
 		}
 	}
 
-	
+	/**
+	 * Queues a {@link DirectedBroadcast} for its recipient only, if the recipient is registered
+	 */
+	private void deliver(MicroService recipient, Broadcast b) {
+		ConcurrentLinkedQueue<Message> q = recipient == null ? null : services.get(recipient);
+		if (q != null) {
+			synchronized (q) {
+				q.add(b);
+				q.notifyAll();
+			}
+		}
+	}
+
 	@Override
 	public <T> Future<T> sendEvent(Event<T> e) {
 		Future<T> f = new Future<T>();
@@ -117,13 +132,14 @@ public class MessageBusImpl implements MessageBus {
 			MicroService ms = subs.pollFirst();
 			synchronized (subs) {
 				if (ms != null) {
+					// The future is registered before the event is queued, so a fast handler can already complete it
+					futures.put(e, f);
 					ConcurrentLinkedQueue<Message> q = services.get(ms);
 					synchronized (q) {
 						q.add(e);
 						q.notifyAll();
 					}
 					subs.addLast(ms);
-					futures.put(e, f);
 				}
 			}
 		}
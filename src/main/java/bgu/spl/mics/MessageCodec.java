@@ -0,0 +1,31 @@
+package bgu.spl.mics;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts the messages of a single type to bytes and back, so they can be journaled or sent to another process.
+ * A codec writes the contents of a message only, its type is written by the {@link MessageCodecs} it is
+ * registered in. References to shared objects should be written as ids, not as their contents.
+ * <p>
+ * Codecs are shared by all the threads of a process, so they must not keep any state between calls.
+ * @param <M> the type of the encoded messages
+ */
+public interface MessageCodec<M extends Message> {
+
+    /**
+     * @return the exact class of the messages this codec encodes
+     */
+    Class<M> getType();
+
+    /**
+     * Writes the contents of {@code message} at the position of {@code out}
+     * @throws java.nio.BufferOverflowException if {@code out} has no room for the contents
+     */
+    void encode(M message, ByteBuffer out);
+
+    /**
+     * Reads the contents written by {@link #encode(Message, ByteBuffer)} at the position of {@code in}
+     * @return a new message with the decoded contents
+     */
+    M decode(ByteBuffer in);
+}
@@ -0,0 +1,97 @@
+package bgu.spl.mics;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A registry of {@link MessageCodec}s, encoding every message as the tag of its type followed by its contents.
+ * Tags are given in the order the codecs are registered, so the registries of two processes exchanging messages
+ * must register the same codecs in the same order.
+ * <p>
+ * The codecs are registered once, before the registry is used. From then on encoding and decoding only read the
+ * registry, so any number of threads may use it, and encoding into a reused buffer does not allocate.
+ */
+public class MessageCodecs {
+
+    private HashMap<Class<?>, Registration<?>> byType = new HashMap<Class<?>, Registration<?>>();
+    private Registration<?>[] byTag = new Registration<?>[0];
+
+    /**
+     * Registers a codec, giving its type the next tag
+     * @pre no codec was registered for {@code codec.getType()}
+     * @return this registry
+     */
+    public <M extends Message> MessageCodecs register(MessageCodec<M> codec) {
+        if (byType.containsKey(codec.getType()))
+            throw new IllegalArgumentException("A codec is already registered for " + codec.getType().getName());
+        Registration<M> registration = new Registration<M>(byTag.length, codec);
+        byTag = Arrays.copyOf(byTag, byTag.length + 1);
+        byTag[registration.tag] = registration;
+        byType.put(codec.getType(), registration);
+        return this;
+    }
+
+    /**
+     * @return true iff a codec is registered for the exact class of {@code message}
+     */
+    public boolean canEncode(Message message) {
+        return byType.containsKey(message.getClass());
+    }
+
+    /**
+     * @return the tag of {@code type}, or -1 if no codec is registered for it
+     */
+    public int tagOf(Class<?> type) {
+        Registration<?> registration = byType.get(type);
+        return registration == null ? -1 : registration.tag;
+    }
+
+    /**
+     * Writes the tag and the contents of {@code message} at the position of {@code out}.
+     * If {@code out} has no room for the whole message, its position is left unchanged, so the caller may retry
+     * with a larger buffer.
+     * @throws IllegalArgumentException if no codec is registered for the class of {@code message}
+     * @throws BufferOverflowException if {@code out} has no room for the message
+     */
+    public void encode(Message message, ByteBuffer out) {
+        Registration<?> registration = byType.get(message.getClass());
+        if (registration == null)
+            throw new IllegalArgumentException("No codec is registered for " + message.getClass().getName());
+        int start = out.position();
+        try {
+            Varint.writeInt(out, registration.tag);
+            registration.encode(message, out);
+        } catch (BufferOverflowException exc) {
+            out.position(start);
+            throw exc;
+        }
+    }
+
+    /**
+     * Reads a message written by {@link #encode(Message, ByteBuffer)} at the position of {@code in}
+     * @throws IllegalArgumentException if the tag is not registered
+     */
+    public Message decode(ByteBuffer in) {
+        int tag = Varint.readInt(in);
+        if (tag < 0 || tag >= byTag.length)
+            throw new IllegalArgumentException("Unknown message tag " + tag);
+        return byTag[tag].codec.decode(in);
+    }
+
+    private static class Registration<M extends Message> {
+
+        private final int tag;
+        private final MessageCodec<M> codec;
+
+        Registration(int tag, MessageCodec<M> codec) {
+            this.tag = tag;
+            this.codec = codec;
+        }
+
+        void encode(Message message, ByteBuffer out) {
+            codec.encode(codec.getType().cast(message), out);
+        }
+    }
+}
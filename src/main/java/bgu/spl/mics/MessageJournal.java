@@ -0,0 +1,219 @@
+package bgu.spl.mics;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An append-only journal of the traffic of a {@link MessageBus}, see {@link JournalingMessageBus}.
+ * <p>
+ * The journal is a sequence of fixed-size records, kept in segment files of equal size which are memory-mapped
+ * as they are needed, {@code <journal>.00000}, {@code <journal>.00001} and so on. A record holds:
+ * <pre>
+ *   offset 0   long  the time of the record, in nanoseconds since the journal was opened
+ *   offset 8   int   the kind of the record, see {@link #SEND_EVENT}, {@link #SEND_BROADCAST}, {@link #COMPLETE}
+ *                    and {@link #DISPATCH}
+ *   offset 12  int   the id of the message type
+ *   offset 16  int   the id of the service the message was dispatched to, or -1
+ *   offset 20  int   the identity hash of the message, which relates the records of a single message
+ *   offset 24  long  reserved
+ * </pre>
+ * The names of the message types and of the services are written to {@code <journal>.names} the first time
+ * they are seen, as lines of {@code T <id> <class name>} and {@code S <id> <service name>}, followed by
+ * {@code R <number of records>} when the journal is closed.
+ * <p>
+ * Appending a record reserves its slot with a single atomic increment and writes it in place, so appending
+ * never blocks and never allocates, apart from mapping the next segment once the current one is full.
+ * @see JournalReplay
+ */
+public class MessageJournal implements Closeable {
+
+    public static final int SEND_EVENT = 1;
+    public static final int SEND_BROADCAST = 2;
+    public static final int COMPLETE = 3;
+    public static final int DISPATCH = 4;
+
+    public static final int RECORD_SIZE = 32;
+    private static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    private final String base;
+    private final int recordsPerSegment;
+    private final long startTime = System.nanoTime();
+    private final AtomicLong nextRecord = new AtomicLong(0);
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private final Object segmentsLock = new Object();
+    private final ConcurrentHashMap<Class<?>, Integer> typeIds = new ConcurrentHashMap<Class<?>, Integer>();
+    private final ConcurrentHashMap<MicroService, Integer> serviceIds = new ConcurrentHashMap<MicroService, Integer>();
+    private final AtomicInteger nextTypeId = new AtomicInteger(0);
+    private final AtomicInteger nextServiceId = new AtomicInteger(0);
+    private final Writer names;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a journal, replacing the names file of an earlier journal with the same path
+     * @param base the path of the journal, the segments and the names file are named after it
+     */
+    public MessageJournal(File base) throws IOException {
+        this(base, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @pre segmentSize >= RECORD_SIZE
+     * @param base the path of the journal, the segments and the names file are named after it
+     * @param segmentSize the size in bytes of every segment file, rounded down to a whole number of records
+     */
+    public MessageJournal(File base, int segmentSize) throws IOException {
+        this.base = base.getPath();
+        this.recordsPerSegment = Math.max(1, segmentSize / RECORD_SIZE);
+        this.names = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(namesFile(base)),
+                StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the names file of the journal at {@code base}
+     */
+    public static File namesFile(File base) {
+        return new File(base.getPath() + ".names");
+    }
+
+    /**
+     * @return the {@code index}th segment file of the journal at {@code base}
+     */
+    public static File segmentFile(File base, int index) {
+        return new File(String.format("%s.%05d", base.getPath(), index));
+    }
+
+    /**
+     * @return the number of records appended so far
+     */
+    public long getRecords() {
+        return Math.min(nextRecord.get(), (long) segments.length * recordsPerSegment);
+    }
+
+    /**
+     * Appends a single record
+     * @param kind the kind of the record
+     * @param message the message the record is about
+     * @param service the service {@code message} was dispatched to, or null
+     */
+    public void append(int kind, Message message, MicroService service) {
+        if (closed)
+            return;
+        long time = System.nanoTime() - startTime;
+        int type = typeId(message.getClass());
+        int serviceId = service == null ? -1 : serviceId(service);
+        long record = nextRecord.getAndIncrement();
+        MappedByteBuffer segment = segment((int) (record / recordsPerSegment));
+        if (segment == null)
+            return;
+        int offset = (int) (record % recordsPerSegment) * RECORD_SIZE;
+        segment.putInt(offset + 12, type);
+        segment.putInt(offset + 16, serviceId);
+        segment.putInt(offset + 20, System.identityHashCode(message));
+        segment.putLong(offset + 24, 0L);
+        segment.putLong(offset, time);
+        segment.putInt(offset + 8, kind); // written last, a record of kind 0 was not completed
+    }
+
+    /**
+     * @return the id of {@code service}, naming it in the journal the first time it is seen
+     */
+    public int serviceId(MicroService service) {
+        Integer id = serviceIds.get(service);
+        if (id != null)
+            return id;
+        synchronized (names) {
+            id = serviceIds.get(service);
+            if (id == null) {
+                id = nextServiceId.getAndIncrement();
+                writeName("S", id, service.getName());
+                serviceIds.put(service, id);
+            }
+            return id;
+        }
+    }
+
+    private int typeId(Class<?> type) {
+        Integer id = typeIds.get(type);
+        if (id != null)
+            return id;
+        synchronized (names) {
+            id = typeIds.get(type);
+            if (id == null) {
+                id = nextTypeId.getAndIncrement();
+                writeName("T", id, type.getName());
+                typeIds.put(type, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * @pre the calling thread holds the lock of {@code names}
+     */
+    private void writeName(String kind, int id, String name) {
+        try {
+            names.write(kind + " " + id + " " + name.replace('\n', ' ') + "\n");
+            names.flush();
+        } catch (IOException exc) {
+            throw new UncheckedIOException("Could not write the names of the journal " + base, exc);
+        }
+    }
+
+    /**
+     * @return the mapped segment {@code index}, mapping new segments if needed, or null if the journal was closed
+     */
+    private MappedByteBuffer segment(int index) {
+        MappedByteBuffer[] current = segments;
+        if (index < current.length)
+            return current[index];
+        synchronized (segmentsLock) {
+            while (!closed && segments.length <= index) {
+                MappedByteBuffer[] grown = Arrays.copyOf(segments, segments.length + 1);
+                grown[segments.length] = map(segments.length);
+                segments = grown;
+            }
+            return closed ? null : segments[index];
+        }
+    }
+
+    private MappedByteBuffer map(int index) {
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile(new File(base), index), "rw")) {
+            file.setLength(0); // drops the records of an earlier journal with the same path
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) recordsPerSegment * RECORD_SIZE);
+        } catch (IOException exc) {
+            throw new UncheckedIOException("Could not map a segment of the journal " + base, exc);
+        }
+    }
+
+    /**
+     * Flushes the segments to the disk and writes the number of records. Records appended later are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (segmentsLock) {
+            if (closed)
+                return;
+            closed = true;
+            for (MappedByteBuffer segment : segments)
+                segment.force();
+        }
+        synchronized (names) {
+            names.write("R " + getRecords() + "\n");
+            names.close();
+        }
+    }
+}
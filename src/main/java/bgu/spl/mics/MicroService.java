@@ -5,6 +5,7 @@ import bgu.spl.mics.application.services.GPUService;
 
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The MicroService is an abstract class that any micro-service in the system
@@ -26,11 +27,12 @@ import java.util.LinkedList;
  */
 public abstract class MicroService implements Runnable {
 
-    private MessageBus bus = MessageBusImpl.getInstance();
+    private MessageBus bus = BusContext.current(); // the singleton, unless another bus is bound to the constructing thread
     private boolean terminated = false;
     private final String name;
     private HashMap<Class <? extends Message>,Callback> callbacks = new HashMap<Class <? extends Message>,Callback>();
-    private HashMap<Event,Future> futures = new HashMap<Event,Future>();
+    // Events may be sent from threads other than the one running the service, e.g. by continuations
+    private ConcurrentHashMap<Event,Future> futures = new ConcurrentHashMap<Event,Future>();
 
     /**
      * @param name the micro-service name (used mainly for debugging purposes -
@@ -0,0 +1,17 @@
+package bgu.spl.mics;
+
+/**
+ * Completes, in the process that sent it, an {@link Event} which a service of a peer process completed.
+ * By default, a {@link RemoteMessageBus} only resolves the {@link Future} of the event.
+ */
+public interface RemoteCompletionHandler {
+
+    /**
+     * Called on the selector thread of the {@link RemoteMessageBus}, so it must not block
+     * @param event the event as it was sent by this process
+     * @param future the {@link Future} the bus returned for {@code event}, not resolved yet
+     * @param result the result decoded by the {@link ResultCodec} of the bus, or null if no service of the peer
+     *               could handle the event
+     */
+    void completed(Event<?> event, Future<?> future, Object result);
+}
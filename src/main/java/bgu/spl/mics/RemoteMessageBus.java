@@ -0,0 +1,769 @@
+package bgu.spl.mics;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link MessageBus} connecting the {@link MicroService}s of this process to the buses of other processes.
+ * <p>
+ * The services of this process register and subscribe on a local bus as usual. Every bus tells its peers which
+ * message types its services subscribe to, so a message is only sent to a peer that has a subscriber for it:
+ * <ul>
+ *     <li>A broadcast is delivered to the local subscribers and sent to every subscribed peer, which delivers it
+ *     to its own subscribers.</li>
+ *     <li>An event is given to the local subscribers and to the subscribed peers in a round-robin manner, the local
+ *     subscribers counting as a single peer. An event sent to a peer returns a {@link Future} of this process,
+ *     resolved once a service of the peer completes the event.</li>
+ * </ul>
+ * Messages are written with a {@link MessageCodecs} and results with a {@link ResultCodec}. Messages without a
+ * codec never leave this process.
+ * <p>
+ * The peers are connected by non-blocking sockets, all served by a single selector thread. Every frame is a
+ * length, a kind and a payload. Senders append their frames to the output buffer of the connection, and the
+ * selector thread writes all the frames appended since its last write at once, so a burst of messages costs a
+ * single write per connection. The output buffer grows up to {@value #MAX_OUTPUT} bytes, past that a sender waits
+ * for the selector thread to write what the buffer holds.
+ * <p>
+ * A decoded message is a copy of the sent one, so its sender-side state, such as continuations, stays with the
+ * sender. Decoding a message or a result only reads the shared objects of the process, the sender may apply the
+ * decoded results of its remote events with a {@link RemoteCompletionHandler}.
+ * An event received from a peer which no local service subscribes to anymore is completed with a null result.
+ * Events in flight to a peer whose connection is lost are completed through the {@link RemoteCompletionHandler}
+ * with a null result, and the loss is reported to the listener set with {@link #setDisconnectListener(Runnable)}.
+ */
+public class RemoteMessageBus implements MessageBus {
+
+    private static final byte SUBSCRIBE_EVENT = 1;
+    private static final byte SUBSCRIBE_BROADCAST = 2;
+    private static final byte UNSUBSCRIBE_EVENT = 3;
+    private static final byte UNSUBSCRIBE_BROADCAST = 4;
+    private static final byte EVENT = 5;
+    private static final byte BROADCAST = 6;
+    private static final byte COMPLETE = 7;
+    private static final byte READY = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_FRAME = 16 * 1024 * 1024;
+    private static final int MAX_OUTPUT = 4 * MAX_FRAME;
+    private static final long CONNECT_RETRY = 50; // in milliseconds
+    private static final long CLOSE_GRACE = 1000; // in milliseconds
+
+    private final MessageBus local;
+    private final MessageCodecs codecs;
+    private final ResultCodec results;
+    private volatile RemoteCompletionHandler completionHandler = RemoteMessageBus::resolve;
+    private final Selector selector;
+    private final Thread selectorThread;
+    private volatile boolean closing = false;
+    private volatile Runnable disconnectListener = () -> {};
+    private final ConcurrentLinkedQueue<ServerSocketChannel> pendingServers = new ConcurrentLinkedQueue<ServerSocketChannel>();
+    private final ConcurrentLinkedQueue<Connection> pendingConnections = new ConcurrentLinkedQueue<Connection>();
+    private final ConcurrentLinkedQueue<Connection> dirty = new ConcurrentLinkedQueue<Connection>();
+    private volatile Connection[] connections = new Connection[0];
+    // Guards the local subscriptions, so every connection learns about each of them exactly once
+    private final Object subscriptionsLock = new Object();
+    private final HashMap<Class<?>, Set<MicroService>> localEventSubscribers = new HashMap<Class<?>, Set<MicroService>>();
+    private final HashMap<Class<?>, Set<MicroService>> localBroadcastSubscribers = new HashMap<Class<?>, Set<MicroService>>();
+    private final ConcurrentHashMap<Class<?>, Boolean> hasLocalEventSubscribers = new ConcurrentHashMap<Class<?>, Boolean>();
+    private final ConcurrentHashMap<Class<?>, AtomicInteger> roundRobin = new ConcurrentHashMap<Class<?>, AtomicInteger>();
+    private boolean ready = false; // guarded by subscriptionsLock
+    private int connectedPeers = 0; // guarded by subscriptionsLock, the peers this bus connected to itself
+    private final AtomicLong nextEventId = new AtomicLong(0);
+    private final ConcurrentHashMap<Long, SentEvent> sentEvents = new ConcurrentHashMap<Long, SentEvent>();
+    private final ConcurrentHashMap<Event<?>, Origin> receivedEvents = new ConcurrentHashMap<Event<?>, Origin>();
+
+    /**
+     * Creates a bus without peers and starts its selector thread
+     * @param local the bus of the services of this process
+     * @param codecs encodes the messages, every peer must register the same codecs in the same order
+     * @param results encodes the results of the events
+     */
+    public RemoteMessageBus(MessageBus local, MessageCodecs codecs, ResultCodec results) throws IOException {
+        this.local = local;
+        this.codecs = codecs;
+        this.results = results;
+        this.selector = Selector.open();
+        this.selectorThread = new Thread(this::runSelector, "Message-Bus Selector Thread");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * Sets the handler called on the selector thread when an event sent to a peer was completed there,
+     * instead of only resolving its {@link Future}
+     */
+    public void setCompletionHandler(RemoteCompletionHandler handler) {
+        completionHandler = handler;
+    }
+
+    /**
+     * Sets the listener called on the selector thread when the connection to a peer is lost or closed by the peer
+     */
+    public void setDisconnectListener(Runnable listener) {
+        disconnectListener = listener;
+    }
+
+    /**
+     * Accepts the connections of peers on a port of the loopback interface
+     * @param port the port to listen on, 0 for any free port
+     * @return the port the bus listens on
+     */
+    public int listen(int port) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server.configureBlocking(false);
+        pendingServers.add(server);
+        selector.wakeup();
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Connects to a peer, retrying until the peer listens or until the timeout passed.
+     * The peer is one of the peers {@link #awaitReadyPeers(long)} waits for.
+     * @param address the address the peer listens on
+     * @param timeout how long to keep retrying, in milliseconds
+     * @throws IOException if the peer could not be connected within {@code timeout}
+     */
+    public void connect(InetSocketAddress address, long timeout) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            try {
+                SocketChannel channel = SocketChannel.open(address);
+                channel.configureBlocking(false);
+                synchronized (subscriptionsLock) {
+                    connectedPeers++;
+                }
+                pendingConnections.add(new Connection(channel, true));
+                selector.wakeup();
+                return;
+            } catch (IOException exc) {
+                if (System.currentTimeMillis() >= deadline)
+                    throw exc;
+                Thread.sleep(CONNECT_RETRY);
+            }
+        }
+    }
+
+    /**
+     * Tells the peers, current and future, that every service of this process subscribed, and that this process
+     * knows the subscriptions of every peer it connected to. A peer may wait for it with
+     * {@link #awaitReadyPeers(long)}.
+     */
+    public void markReady() {
+        synchronized (subscriptionsLock) {
+            ready = true;
+            for (Connection connection : connections)
+                sendFrame(connection, READY, 0, null);
+        }
+    }
+
+    /**
+     * Waits until every peer this bus connected to called {@link #markReady()}, so the subscriptions of all of
+     * them are known. The peers that connected to this bus are not waited for, so two processes never wait for
+     * each other as long as they do not connect to each other.
+     * @param timeout how long to wait, in milliseconds
+     * @return true iff every such peer was ready within {@code timeout}
+     */
+    public boolean awaitReadyPeers(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        synchronized (subscriptionsLock) {
+            while (countReadyPeers() < connectedPeers) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0)
+                    return false;
+                subscriptionsLock.wait(left);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes the frames still waiting to be sent, then disconnects from every peer.
+     * Waits at most a second for the frames to be written.
+     */
+    public void close() throws InterruptedException {
+        closing = true;
+        selector.wakeup();
+        selectorThread.join(CLOSE_GRACE);
+    }
+
+    @Override
+    public boolean isRegistered(MicroService ms) {
+        return local.isRegistered(ms);
+    }
+
+    @Override
+    public <T> boolean isSubEvent(Class<? extends Event<T>> type, MicroService m) {
+        return local.isSubEvent(type, m);
+    }
+
+    @Override
+    public boolean isSubBroadcast(Class<? extends Broadcast> type, MicroService m) {
+        return local.isSubBroadcast(type, m);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Future<T> getFuture(Event<T> e) {
+        Future<T> future = local.getFuture(e);
+        if (future != null)
+            return future;
+        for (SentEvent sent : sentEvents.values()) {
+            if (sent.event == e)
+                return (Future<T>) sent.future;
+        }
+        return null;
+    }
+
+    @Override
+    public <T> void subscribeEvent(Class<? extends Event<T>> type, MicroService m) {
+        synchronized (subscriptionsLock) {
+            local.subscribeEvent(type, m);
+            if (addSubscriber(localEventSubscribers, type, m)) {
+                hasLocalEventSubscribers.put(type, true);
+                announce(SUBSCRIBE_EVENT, type);
+            }
+        }
+    }
+
+    @Override
+    public void subscribeBroadcast(Class<? extends Broadcast> type, MicroService m) {
+        synchronized (subscriptionsLock) {
+            local.subscribeBroadcast(type, m);
+            if (addSubscriber(localBroadcastSubscribers, type, m))
+                announce(SUBSCRIBE_BROADCAST, type);
+        }
+    }
+
+    @Override
+    public <T> void complete(Event<T> e, T result) {
+        Origin origin = receivedEvents.remove(e);
+        if (origin != null)
+            sendFrame(origin.connection, COMPLETE, origin.id, result);
+        local.complete(e, result);
+    }
+
+    @Override
+    public void sendBroadcast(Broadcast b) {
+        local.sendBroadcast(b);
+        int tag = codecs.tagOf(b.getClass());
+        if (tag < 0)
+            return;
+        for (Connection connection : connections) {
+            if (connection.broadcastTags.contains(tag))
+                sendFrame(connection, BROADCAST, 0, b);
+        }
+    }
+
+    @Override
+    public <T> Future<T> sendEvent(Event<T> e) {
+        int tag = codecs.tagOf(e.getClass());
+        if (tag < 0)
+            return local.sendEvent(e);
+        Connection[] current = connections;
+        int localTargets = hasLocalEventSubscribers.containsKey(e.getClass()) ? 1 : 0;
+        int targets = localTargets;
+        for (Connection connection : current) {
+            if (connection.eventTags.contains(tag))
+                targets++;
+        }
+        if (targets == localTargets)
+            return local.sendEvent(e);
+        AtomicInteger counter = roundRobin.computeIfAbsent(e.getClass(), type -> new AtomicInteger());
+        int target = Math.floorMod(counter.getAndIncrement(), targets) - localTargets;
+        if (target < 0)
+            return local.sendEvent(e);
+        for (Connection connection : current) {
+            if (connection.eventTags.contains(tag) && target-- == 0) {
+                long id = nextEventId.incrementAndGet();
+                Future<T> future = new Future<T>();
+                SentEvent sent = new SentEvent(e, future, connection);
+                // The future is registered before the event is sent, so a fast peer can already complete it
+                sentEvents.put(id, sent);
+                // Either this check sees the connection closed, or the disconnect sees the sent event
+                if (connection.closed && sentEvents.remove(id, sent))
+                    break;
+                sendFrame(connection, EVENT, id, e);
+                return future;
+            }
+        }
+        return local.sendEvent(e); // the chosen peer disconnected meanwhile
+    }
+
+    @Override
+    public void register(MicroService m) {
+        local.register(m);
+    }
+
+    @Override
+    public void unregister(MicroService m) {
+        synchronized (subscriptionsLock) {
+            local.unregister(m);
+            for (Class<?> type : removeSubscriber(localEventSubscribers, m)) {
+                hasLocalEventSubscribers.remove(type);
+                announce(UNSUBSCRIBE_EVENT, type);
+            }
+            for (Class<?> type : removeSubscriber(localBroadcastSubscribers, m))
+                announce(UNSUBSCRIBE_BROADCAST, type);
+        }
+    }
+
+    @Override
+    public Message awaitMessage(MicroService m) throws InterruptedException {
+        return local.awaitMessage(m);
+    }
+
+    /**
+     * @return true iff {@code m} is the first local subscriber of {@code type}
+     */
+    private static boolean addSubscriber(Map<Class<?>, Set<MicroService>> subscribers, Class<?> type, MicroService m) {
+        Set<MicroService> services = subscribers.get(type);
+        if (services == null) {
+            services = new HashSet<MicroService>();
+            subscribers.put(type, services);
+        }
+        return services.add(m) && services.size() == 1;
+    }
+
+    /**
+     * @return the types {@code m} was the last local subscriber of
+     */
+    private static Set<Class<?>> removeSubscriber(Map<Class<?>, Set<MicroService>> subscribers, MicroService m) {
+        Set<Class<?>> abandoned = new HashSet<Class<?>>();
+        Iterator<Map.Entry<Class<?>, Set<MicroService>>> iter = subscribers.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Class<?>, Set<MicroService>> entry = iter.next();
+            if (entry.getValue().remove(m) && entry.getValue().isEmpty()) {
+                abandoned.add(entry.getKey());
+                iter.remove();
+            }
+        }
+        return abandoned;
+    }
+
+    /**
+     * Tells every connected peer about a change of the local subscriptions of {@code type}
+     * @pre the current thread holds subscriptionsLock
+     */
+    private void announce(byte kind, Class<?> type) {
+        int tag = codecs.tagOf(type);
+        if (tag < 0)
+            return;
+        for (Connection connection : connections)
+            sendFrame(connection, kind, tag, null);
+    }
+
+    private int countReadyPeers() {
+        int count = 0;
+        for (Connection connection : connections) {
+            if (connection.outgoing && connection.ready)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Appends a frame to the output buffer of {@code connection}, and schedules the buffer to be written
+     * @param id the tag of a subscription frame, or the id of an event or completion frame
+     * @param payload the message of a message frame, or the result of a completion frame
+     */
+    private void sendFrame(Connection connection, byte kind, long id, Object payload) {
+        synchronized (connection) {
+            while (true) {
+                if (connection.closed)
+                    return; // the frame would never be written
+                ByteBuffer out = connection.out;
+                int start = out.position();
+                try {
+                    out.putInt(0);
+                    out.put(kind);
+                    if (kind != BROADCAST && kind != READY)
+                        Varint.writeLong(out, id);
+                    if (kind == EVENT || kind == BROADCAST)
+                        codecs.encode((Message) payload, out);
+                    else if (kind == COMPLETE)
+                        results.encode(payload, out);
+                    int length = out.position() - start - 4;
+                    if (length > MAX_FRAME) {
+                        out.position(start);
+                        throw new IllegalArgumentException("A frame of " + length + " bytes is longer than "
+                                + MAX_FRAME + " bytes");
+                    }
+                    out.putInt(start, length);
+                    break;
+                } catch (BufferOverflowException exc) {
+                    out.position(start);
+                    makeRoom(connection);
+                }
+            }
+            if (connection.scheduled)
+                return;
+            connection.scheduled = true;
+        }
+        dirty.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Makes room for a frame which did not fit in the output buffer of {@code connection}.
+     * The buffer doubles until it holds {@value #MAX_OUTPUT} bytes, from then on the sender waits until the selector
+     * thread wrote some of the buffer. The selector thread itself never waits, it only appends small frames.
+     * @pre Thread.holdsLock(connection)
+     */
+    private void makeRoom(Connection connection) {
+        if (connection.out.capacity() < MAX_OUTPUT || Thread.currentThread() == selectorThread) {
+            connection.growOutput();
+            return;
+        }
+        if (!connection.scheduled) {
+            connection.scheduled = true;
+            dirty.add(connection);
+            selector.wakeup();
+        }
+        try {
+            connection.wait();
+        } catch (InterruptedException exc) {
+            // An interrupted sender does not wait, its frame goes past the cap
+            Thread.currentThread().interrupt();
+            connection.growOutput();
+        }
+    }
+
+    private void runSelector() {
+        long closeDeadline = Long.MAX_VALUE;
+        try {
+            while (true) {
+                if (closing) {
+                    if (closeDeadline == Long.MAX_VALUE)
+                        closeDeadline = System.currentTimeMillis() + CLOSE_GRACE;
+                    if (!hasUnwrittenFrames() || System.currentTimeMillis() >= closeDeadline)
+                        break;
+                    selector.select(CONNECT_RETRY);
+                }
+                else
+                    selector.select();
+                ServerSocketChannel server = pendingServers.poll();
+                while (server != null) {
+                    server.register(selector, SelectionKey.OP_ACCEPT);
+                    server = pendingServers.poll();
+                }
+                Connection pending = pendingConnections.poll();
+                while (pending != null) {
+                    register(pending);
+                    pending = pendingConnections.poll();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable()) {
+                        accept((ServerSocketChannel) key.channel());
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable())
+                            read(connection);
+                        if (key.isValid() && key.isWritable())
+                            write(connection);
+                    } catch (IOException exc) {
+                        disconnect(connection, exc);
+                    }
+                }
+                Connection connection = dirty.poll();
+                while (connection != null) {
+                    try {
+                        write(connection);
+                    } catch (IOException exc) {
+                        disconnect(connection, exc);
+                    }
+                    connection = dirty.poll();
+                }
+            }
+        } catch (IOException exc) {
+            System.err.println("The message-bus selector failed: " + exc.getMessage());
+        } finally {
+            for (Connection connection : connections)
+                connection.close();
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {}
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private boolean hasUnwrittenFrames() {
+        for (Connection connection : connections) {
+            synchronized (connection) {
+                if (connection.scheduled && connection.channel.isOpen())
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private void register(Connection connection) throws IOException {
+        connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+        // The connection is published before the snapshot of the subscriptions is taken, under the same lock the
+        // subscriptions change under, so the peer learns about every subscription exactly once
+        synchronized (subscriptionsLock) {
+            Connection[] grown = Arrays.copyOf(connections, connections.length + 1);
+            grown[connections.length] = connection;
+            connections = grown;
+            for (Class<?> type : localEventSubscribers.keySet())
+                announce(connection, SUBSCRIBE_EVENT, type);
+            for (Class<?> type : localBroadcastSubscribers.keySet())
+                announce(connection, SUBSCRIBE_BROADCAST, type);
+            if (ready)
+                sendFrame(connection, READY, 0, null);
+        }
+    }
+
+    private void announce(Connection connection, byte kind, Class<?> type) {
+        int tag = codecs.tagOf(type);
+        if (tag >= 0)
+            sendFrame(connection, kind, tag, null);
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        register(new Connection(channel, false));
+    }
+
+    private void disconnect(Connection connection, IOException cause) {
+        if (!(cause instanceof EOFException))
+            System.err.println("Lost the connection to the peer " + connection.address + ": " + cause.getMessage());
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException ignored) {}
+        connection.close();
+        synchronized (subscriptionsLock) {
+            Connection[] current = connections;
+            int kept = 0;
+            Connection[] remaining = new Connection[current.length];
+            for (Connection other : current) {
+                if (other != connection)
+                    remaining[kept++] = other;
+            }
+            connections = Arrays.copyOf(remaining, kept);
+            subscriptionsLock.notifyAll();
+            if (kept == current.length)
+                return; // already disconnected
+        }
+        // The events in flight to the peer will never be completed there
+        for (Map.Entry<Long, SentEvent> entry : sentEvents.entrySet()) {
+            SentEvent sent = entry.getValue();
+            if (sent.connection == connection && sentEvents.remove(entry.getKey(), sent))
+                completionHandler.completed(sent.event, sent.future, null);
+        }
+        disconnectListener.run();
+    }
+
+    /**
+     * Writes the output buffer of {@code connection}. If the socket takes only part of it, the rest is written
+     * once the socket is writable again.
+     */
+    private void write(Connection connection) throws IOException {
+        synchronized (connection) {
+            if (!connection.channel.isOpen())
+                return;
+            ByteBuffer out = connection.out;
+            out.flip();
+            try {
+                connection.channel.write(out);
+            } finally {
+                out.compact();
+                connection.notifyAll(); // a sender may wait for room in the buffer
+            }
+            if (out.position() > 0)
+                connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            else {
+                connection.scheduled = false;
+                connection.key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    /**
+     * Reads what the socket of {@code connection} holds, and handles every complete frame
+     */
+    private void read(Connection connection) throws IOException {
+        ByteBuffer in = connection.in;
+        if (connection.channel.read(in) < 0)
+            throw new EOFException();
+        in.flip();
+        int needed = 0;
+        while (in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length < 1 || length > MAX_FRAME)
+                throw new IOException("Invalid frame length " + length);
+            if (in.remaining() < 4 + length) {
+                needed = 4 + length;
+                break;
+            }
+            int end = in.position() + 4 + length;
+            int limit = in.limit();
+            in.position(in.position() + 4);
+            in.limit(end);
+            try {
+                handleFrame(connection, in);
+            } catch (RuntimeException exc) {
+                throw new IOException("Invalid frame: " + exc, exc);
+            }
+            in.limit(limit);
+            in.position(end);
+        }
+        in.compact();
+        if (needed > in.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate(needed);
+            in.flip();
+            grown.put(in);
+            connection.in = grown;
+        }
+    }
+
+    private void handleFrame(Connection connection, ByteBuffer in) {
+        byte kind = in.get();
+        switch (kind) {
+            case SUBSCRIBE_EVENT: connection.eventTags.add(readTag(in)); break;
+            case SUBSCRIBE_BROADCAST: connection.broadcastTags.add(readTag(in)); break;
+            case UNSUBSCRIBE_EVENT: connection.eventTags.remove(readTag(in)); break;
+            case UNSUBSCRIBE_BROADCAST: connection.broadcastTags.remove(readTag(in)); break;
+            case EVENT: {
+                long id = Varint.readLong(in);
+                Event<?> event = (Event<?>) codecs.decode(in);
+                receivedEvents.put(event, new Origin(connection, id));
+                if (!hasLocalEventSubscribers.containsKey(event.getClass()) || local.sendEvent(event) == null) {
+                    // The peer sent the event before it learned that the last local subscriber left
+                    receivedEvents.remove(event);
+                    sendFrame(connection, COMPLETE, id, null);
+                }
+                break;
+            }
+            case BROADCAST: local.sendBroadcast((Broadcast) codecs.decode(in)); break;
+            case COMPLETE: {
+                long id = Varint.readLong(in);
+                Object result = results.decode(in);
+                SentEvent sent = sentEvents.remove(id);
+                if (sent != null)
+                    completionHandler.completed(sent.event, sent.future, result);
+                break;
+            }
+            case READY:
+                synchronized (subscriptionsLock) {
+                    connection.ready = true;
+                    subscriptionsLock.notifyAll();
+                }
+                break;
+            default: throw new IllegalArgumentException("Unknown frame kind " + kind);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void resolve(Event<?> event, Future<?> future, Object result) {
+        ((Future<Object>) future).resolve(result);
+    }
+
+    private static int readTag(ByteBuffer in) {
+        return (int) Varint.readLong(in); // written as the id of the frame
+    }
+
+    /**
+     * A connection to a single peer
+     */
+    private static class Connection {
+
+        private final SocketChannel channel;
+        private final String address;
+        private final boolean outgoing; // true iff this bus connected to the peer
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE); // only used by the selector thread
+        private ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE); // guarded by the connection
+        private boolean scheduled = false; // guarded by the connection, true iff out holds unwritten frames
+        private volatile boolean closed = false;
+        private volatile boolean ready = false;
+        private final Set<Integer> eventTags = ConcurrentHashMap.newKeySet();
+        private final Set<Integer> broadcastTags = ConcurrentHashMap.newKeySet();
+
+        Connection(SocketChannel channel, boolean outgoing) throws IOException {
+            this.channel = channel;
+            this.outgoing = outgoing;
+            this.address = String.valueOf(channel.getRemoteAddress());
+        }
+
+        /**
+         * Drops the frames waiting to be written and wakes up the senders waiting for room
+         */
+        synchronized void close() {
+            closed = true;
+            scheduled = false;
+            out.clear();
+            notifyAll();
+        }
+
+        void growOutput() {
+            ByteBuffer grown = ByteBuffer.allocate(out.capacity() * 2);
+            out.flip();
+            grown.put(out);
+            out = grown;
+        }
+    }
+
+    /**
+     * An event sent to a peer, waiting to be completed there
+     */
+    private static class SentEvent {
+
+        private final Event<?> event;
+        private final Future<?> future;
+        private final Connection connection; // the connection the event was sent on
+
+        SentEvent(Event<?> event, Future<?> future, Connection connection) {
+            this.event = event;
+            this.future = future;
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * The peer an event was received from, and the id the peer gave it
+     */
+    private static class Origin {
+
+        private final Connection connection;
+        private final long id;
+
+        Origin(Connection connection, long id) {
+            this.connection = connection;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package bgu.spl.mics;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts the results of {@link Event}s to bytes and back, so an {@link Event} handled by another process can
+ * resolve the {@link Future} of its sender. Like a {@link MessageCodec}, it writes references to shared objects
+ * as ids, and it must not keep any state between calls.
+ */
+public interface ResultCodec {
+
+    /**
+     * Writes {@code result} at the position of {@code out}
+     * @param result the result an {@link Event} was completed with, may be null
+     * @throws java.nio.BufferOverflowException if {@code out} has no room for the result
+     */
+    void encode(Object result, ByteBuffer out);
+
+    /**
+     * Reads a result written by {@link #encode(Object, ByteBuffer)} at the position of {@code in}
+     */
+    Object decode(ByteBuffer in);
+}
@@ -0,0 +1,75 @@
+package bgu.spl.mics;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable-length encoding of integers, 7 bits per byte with the high bit marking that more bytes follow
+ * (unsigned LEB128). Small values, such as ids and tick numbers, take one or two bytes.
+ * Negative values are written as unsigned, so they take the maximal length; values that are often negative
+ * should be written through {@link #zigZag(int)}.
+ */
+public final class Varint {
+
+    private Varint() {}
+
+    /**
+     * Writes {@code value} at the position of {@code out}
+     * @throws java.nio.BufferOverflowException if {@code out} has no room for the encoded value
+     */
+    public static void writeInt(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Reads a value written by {@link #writeInt(ByteBuffer, int)} at the position of {@code in}
+     * @throws IllegalArgumentException if the encoded value is longer than 5 bytes
+     * @throws java.nio.BufferUnderflowException if {@code in} ends before the value does
+     */
+    public static int readInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public static void writeLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    public static long readLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Maps signed values to unsigned ones, so values close to 0 encode to few bytes: 0, -1, 1, -2 become 0, 1, 2, 3
+     */
+    public static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Reverses {@link #zigZag(int)}
+     */
+    public static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
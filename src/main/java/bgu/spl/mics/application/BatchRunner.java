@@ -0,0 +1,67 @@
+package bgu.spl.mics.application;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many simulations in parallel in a single JVM, each in its own {@link RuntimeContext}.
+ * <p>
+ * Usage: {@code BatchRunner [-j parallelism] input1.json input2.json ...}
+ * <br>
+ * The report of every input is written next to it, as {@code <input>.output.txt}. By default as many
+ * simulations run at the same time as there are available processors.
+ */
+public class BatchRunner {
+
+    private static final String USAGE = "Usage: BatchRunner [-j parallelism] input1.json input2.json ...";
+
+    public static void main(String[] args) throws InterruptedException {
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        List<File> inputs = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j")) {
+                i++;
+                try {
+                    parallelism = Math.max(1, Integer.parseInt(i < args.length ? args[i] : ""));
+                } catch (NumberFormatException exc) {
+                    System.err.println("-j must be followed by the number of simulations to run at the same time");
+                    System.err.println(USAGE);
+                    return;
+                }
+            }
+            else
+                inputs.add(new File(args[i]));
+        }
+        if (inputs.isEmpty()) {
+            System.err.println(USAGE);
+            return;
+        }
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (File input : inputs) {
+            File output = new File(input.getPath() + ".output.txt");
+            results.add(pool.submit(() -> CRMSRunner.run(input, output, RuntimeContext.create())));
+        }
+        int failed = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            boolean completed = false;
+            try {
+                completed = results.get(i).get();
+            } catch (ExecutionException exc) {
+                System.err.println(inputs.get(i) + " failed: " + exc.getCause());
+            }
+            if (!completed)
+                failed++;
+        }
+        pool.shutdown();
+        System.out.printf("Ran %d simulations (%d failed) in %.1f s%n", inputs.size(), failed,
+                (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -2,14 +2,19 @@ package bgu.spl.mics.application;
 
 import bgu.spl.mics.MessageBus;
 import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MessageJournal;
+import bgu.spl.mics.RemoteMessageBus;
+import bgu.spl.mics.application.messages.ApplicationCodecs;
+import bgu.spl.mics.application.messages.ModelDirectory;
 import bgu.spl.mics.application.objects.*;
 import bgu.spl.mics.application.services.*;
-import com.google.gson.*;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.LongAdder;
 
 /** This is the Main class of Compute Resources Management System application. You should parse the input file,
  * create the different instances of the objects, and run the system.
@@ -17,150 +22,248 @@ import java.util.concurrent.ConcurrentLinkedDeque;
  */
 public class CRMSRunner {
     public static void main(String[] args) {
-        // Defining the singletons of the CRMS
-        Cluster cluster = Cluster.getInstance();
-        MessageBus bus = MessageBusImpl.getInstance();
-        // Defining empty Objects to be filled with the parameters from the input file
-        TimeService timeService = null;
-        LinkedList<Student> students = new LinkedList<Student>();
-        ConcurrentLinkedDeque<GPU> gpus = new ConcurrentLinkedDeque<GPU>();
-        ConcurrentLinkedDeque<CPU> cpus = new ConcurrentLinkedDeque<CPU>();
-        LinkedList<ConfrenceInformation> confInfos = new LinkedList<ConfrenceInformation>();
-        Integer tickTime = 1;
-        Integer duration = 1000;
-        // Extracting the parameters from the input .json file into the empty Objects
-        File input = new File(args[0]);
+        run(new File(args[0]), new File("output.txt"), RuntimeContext.defaultContext());
+    }
+
+    /**
+     * Runs a single simulation from start to end, and writes its report
+     * @param input the input .json file
+     * @param outputFile the text report to write
+     * @param context the {@link RuntimeContext} the simulation runs in, it must not be used by another simulation
+     * @return true iff the simulation ran and every service terminated in time
+     */
+    public static boolean run(File input, File outputFile, RuntimeContext context) {
+        // The services constructed below use the bus of the context
+        context.enter();
         try {
-            JsonElement fileElement = JsonParser.parseReader(new FileReader(input));
-            JsonObject fileObject = fileElement.getAsJsonObject();
-            JsonArray studentsArray = fileObject.get("Students").getAsJsonArray();
-            // Extracting the Student objects from the input file
-            for (JsonElement studentElement : studentsArray) {
-                JsonObject studentObject = studentElement.getAsJsonObject();
-                String studentName = studentObject.get("name").getAsString();
-                String department = studentObject.get("department").getAsString();
-                String status = studentObject.get("status").getAsString();
-                ConcurrentLinkedDeque<Model> models = new ConcurrentLinkedDeque<>();
-                JsonArray modelsArray = studentObject.get("models").getAsJsonArray();
-                Student student = new Student(studentName, department, status);
-                for (JsonElement modelElement : modelsArray) {
-                    JsonObject modelObject = modelElement.getAsJsonObject();
-                    String modelName = modelObject.get("name").getAsString();
-                    String type = modelObject.get("type").getAsString();
-                    Integer size = modelObject.get("size").getAsInt();
-                    Data data = new Data(type, size);
-                    models.addLast(new Model(modelName, data, student));
-                }
-                student.setModels(models);
-                students.addLast(student);
+            return run(input, outputFile, context.getCluster(), context.getBus(), context);
+        } finally {
+            context.exit();
+            try {
+                context.getCluster().closeDisk();
+            } catch (IOException exc) {
+                System.err.println("Could not close the disk: " + exc.getMessage());
             }
-            // Extracting the GPU objects from the input file
-            JsonArray gpusArray = fileObject.get("GPUS").getAsJsonArray();
-            for (JsonElement gpuElement : gpusArray) {
-                String type = gpuElement.getAsString();
-                GPU gpu = new GPU(type, cluster);
-                gpus.addLast(gpu);
+        }
+    }
+
+    private static boolean run(File input, File outputFile, Cluster cluster, MessageBus bus, RuntimeContext context) {
+        // Extracting the parameters from the input .json file, streaming it into the Objects
+        InputLoader loader;
+        try {
+            loader = InputLoader.load(input, cluster);
+        } catch (IOException exc) {
+            System.err.println("Could not read the input file " + input + ": " + exc.getMessage());
+            return false;
+        }
+        LinkedList<Student> students = loader.getStudents();
+        ConcurrentLinkedDeque<GPU> gpus = loader.getGpus();
+        ConcurrentLinkedDeque<CPU> cpus = loader.getCpus();
+        LinkedList<ConfrenceInformation> confInfos = loader.getConferences();
+        int tickTime = loader.getTickTime();
+        int duration = loader.getDuration();
+        String timelineFile = loader.getTimelineFile();
+        // Restoring the objects from the snapshot of an earlier run of the same input, if there is one
+        CheckpointFile checkpoints = new CheckpointFile(loader, cluster);
+        int lastTick = 0;
+        if (loader.getRestoreFile() != null) {
+            try {
+                lastTick = checkpoints.restore(new File(loader.getRestoreFile()));
+            } catch (IOException exc) {
+                System.err.println("Could not restore the snapshot " + loader.getRestoreFile() + ": " + exc.getMessage());
+                return false;
             }
-            // Extracting the CPU objects from the input file
-            JsonArray cpusArray = fileObject.get("CPUS").getAsJsonArray();
-            for (JsonElement cpuElement : cpusArray) {
-                Integer cores = cpuElement.getAsInt();
-                CPU cpu = new CPU(cores, cluster);
-                cpus.addLast(cpu);
+        }
+        // An optional remote bus exchanges messages with the services of other processes of the same input file,
+        // the services constructed below use it
+        RemoteMessageBus remote = null;
+        if (loader.isDistributed()) {
+            try {
+                ModelDirectory directory = new ModelDirectory(students);
+                remote = new RemoteMessageBus(bus, ApplicationCodecs.create(directory), ApplicationCodecs.results(directory));
+                // The continuations of an event stay with its sender, they run once a peer completed the event
+                remote.setCompletionHandler(ApplicationCodecs.completions());
+                if (loader.getBusPort() >= 0)
+                    remote.listen(loader.getBusPort());
+                for (InetSocketAddress peer : loader.getBusPeers())
+                    remote.connect(peer, loader.getShutdownTimeout());
+            } catch (IOException | InterruptedException exc) {
+                System.err.println("Could not connect the bus to its peers: " + exc.getMessage());
+                close(remote);
+                return false;
             }
-
-            // Adding the cpus and gpus to the cluster
-            cluster.setCpus(cpus);
-            cluster.setGpus(gpus);
-
-            // Extracting the ConferenceInformation objects from the input file
-            JsonArray confsArray = fileObject.get("Conferences").getAsJsonArray();
-            for (JsonElement confElement : confsArray) {
-                JsonObject confObject = confElement.getAsJsonObject();
-                String name = confObject.get("name").getAsString();
-                Integer date = confObject.get("date").getAsInt();
-                ConfrenceInformation conf = new ConfrenceInformation(name, date);
-                confInfos.addLast(conf);
+            context = context.withRemote(remote);
+            bus = context.getBus();
+            context.enter();
+        }
+        // An optional journal records the traffic of the bus, the services constructed below use the recording bus
+        MessageJournal journal = null;
+        if (loader.getJournalFile() != null) {
+            try {
+                journal = new MessageJournal(new File(loader.getJournalFile()));
+                context = context.withJournal(journal);
+                bus = context.getBus();
+                context.enter();
+            } catch (IOException exc) {
+                System.err.println("Could not create the journal " + loader.getJournalFile() + ": " + exc.getMessage());
             }
-            // Extracting the TimeService from the input file
-            tickTime = fileObject.get("TickTime").getAsInt();
-            duration = fileObject.get("Duration").getAsInt();
-            timeService = new TimeService(tickTime, duration);
-            bus.register(timeService);
-        } catch (FileNotFoundException exc) {
         }
+        // A run taking snapshots counts the sent messages, so the clock can tell the services were quiescent
+        LongAdder sent = new LongAdder();
+        if (loader.getCheckpointFile() != null) {
+            context = context.withSendCounter(sent);
+            bus = context.getBus();
+            context.enter();
+        }
+        // Creating the TimeService
+        boolean localClock = loader.runsLocally("Clock");
+        TimeService timeService = context.createClock(tickTime, duration);
+        timeService.setFirstTick(lastTick + 1);
+        if (localClock)
+            bus.register(timeService);
 
         // Registering the extracted objects as MicroServices to the MessageBus and assigning a new thread for each MicroService
 
+        // A conference whose date passed before the snapshot was already published, it is not started again
+        LinkedList<ConfrenceInformation> upcomingConfs = new LinkedList<ConfrenceInformation>();
+        for (ConfrenceInformation confInfo : confInfos) {
+            if (confInfo.getDate() > lastTick && loader.runsLocally("Conferences"))
+                upcomingConfs.add(confInfo);
+        }
+        // In a distributed run, every process only runs its own groups of services
+        Iterator<GPU> gpusIter = gpus.iterator();
+        Iterator<CPU> cpusIter = cpus.iterator();
+        Iterator<Student> studentsIter = students.iterator();
+        int services = upcomingConfs.size();
+        if (loader.runsLocally("Devices"))
+            services += gpus.size() + cpus.size();
+        else {
+            gpusIter = new LinkedList<GPU>().iterator();
+            cpusIter = new LinkedList<CPU>().iterator();
+        }
+        if (loader.runsLocally("Students"))
+            services += students.size();
+        else
+            studentsIter = new LinkedList<Student>().iterator();
+        RunController controller = new RunController(services);
+        if (remote != null && !localClock)
+            remote.setDisconnectListener(controller::peerLost);
+        if (loader.getCheckpointFile() != null) {
+            File checkpointFile = new File(loader.getCheckpointFile());
+            timeService.setCheckpoints(loader.getCheckpointInterval(), controller.getCheckpointPhaser(), sent::sum, tick -> {
+                try {
+                    checkpoints.write(checkpointFile, tick);
+                } catch (IOException exc) {
+                    System.err.println("Could not write the snapshot of tick " + tick + ": " + exc.getMessage());
+                }
+            });
+        }
         // Registering and executing each GPU from the gpus list as a new MicroService in the system
         int gpuCounter = 1;
-        Iterator<GPU> gpusIter = gpus.iterator();
         while (gpusIter.hasNext()) {
             String name = "GPU " + gpuCounter;
             GPUService gpu = new GPUService(name, gpusIter.next());
             bus.register(gpu);
-            Thread thread = new Thread(gpu, gpu.getName() + " Thread");
-            thread.start();
+            controller.start(gpu, gpu.getName() + " Thread");
             gpuCounter++;
         }
         // Registering and executing each GPU from the gpus list as a new MicroService in the system
         int cpuCounter = 1;
-        Iterator<CPU> cpusIter = cpus.iterator();
         while (cpusIter.hasNext()) {
             String cpuName = "CPU " + cpuCounter;
             CPUService cpu = new CPUService(cpusIter.next(), cpuName);
             bus.register(cpu);
-            Thread thread = new Thread(cpu, cpu.getName() + " Thread");
-            thread.start();
+            controller.start(cpu, cpu.getName() + " Thread");
             cpuCounter++;
         }
         // Registering and executing each ConferenceInformation from the confInfos list as a new MicroService in the system
-        Iterator<ConfrenceInformation> confsIter = confInfos.iterator();
+        Iterator<ConfrenceInformation> confsIter = upcomingConfs.iterator();
         while (confsIter.hasNext()) {
             ConferenceService conf = new ConferenceService(confsIter.next());
             bus.register(conf);
-            Thread thread = new Thread(conf, "Conference " + conf.getName() + " Thread");
-            thread.start();
+            controller.start(conf, "Conference " + conf.getName() + " Thread");
         }
         // Registering and executing each Student from the students list as a new MicroService in the system
-        Iterator<Student> studentsIter = students.iterator();
         while (studentsIter.hasNext()) {
             StudentService student = new StudentService(studentsIter.next());
             bus.register(student);
-            Thread thread = new Thread(student, "Student " + student.getName() + " Thread");
-            thread.start();
+            controller.start(student, "Student " + student.getName() + " Thread");
         }
-        // Starting the clock
-        Thread timeThread = new Thread(timeService, "Time Thread");
-        timeThread.start();
-
-        // Waiting for the execution of the system to finish
-        while (!timeService.isTimeOver()) {
+        // Starting the clock once every service subscribed, then waiting for the clock to finish and for every
+        // service to handle its last messages. In a distributed run, the process is ready once its services
+        // subscribed and the peers it connected to are ready, and the clock only starts once it is ready
+        boolean completed = false;
+        try {
+            if (remote != null) {
+                controller.awaitStartup(loader.getShutdownTimeout());
+                if (!remote.awaitReadyPeers(loader.getShutdownTimeout()))
+                    System.err.println("Not every peer of the bus was ready within " + loader.getShutdownTimeout() + " ms");
+                remote.markReady();
+            }
+            if (localClock) {
+                controller.startClock(timeService, "Time Thread", loader.getShutdownTimeout());
+                System.out.printf("%s: time to first tick: %.3f ms%n", input.getName(), controller.getTimeToFirstTick());
+            }
+            if (localClock)
+                completed = controller.awaitCompletion(loader.getShutdownTimeout());
+            else {
+                // The clock of another process waits for its services and its peers before the first tick
+                long runTimeout = (long) duration * tickTime + 2 * loader.getShutdownTimeout();
+                completed = controller.awaitRemoteCompletion(runTimeout, loader.getShutdownTimeout());
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        close(remote);
+        if (journal != null) {
             try {
-                Thread.currentThread().sleep((duration*tickTime)/10);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                journal.close();
+            } catch (IOException exc) {
+                System.err.println("Could not close the journal: " + exc.getMessage());
             }
         }
 
         // Generating output file
-        File outputFile = new File("output.txt");
-        try {
-            FileWriter writer = new FileWriter(outputFile);
-            writer.write("Students:\n");
-            for (Student student : students) {
-                writer.write(student.toString());
+        try (Writer writer = new BufferedWriter(new FileWriter(outputFile), 1 << 16)) {
+            ReportWriter.writeText(students, confInfos, cluster, writer);
+        }
+        catch (IOException exc) {
+
+        }
+        // An optional "JsonReportFile" also writes the report as JSON, for automated analysis
+        if (loader.getJsonReportFile() != null) {
+            try (Writer writer = new BufferedWriter(new FileWriter(loader.getJsonReportFile()), 1 << 16)) {
+                ReportWriter.writeJson(students, confInfos, cluster, writer);
             }
-            writer.write("Conferences:\n");
-            for (ConfrenceInformation confInfo : confInfos) {
-                writer.write(confInfo.toString());
+            catch (IOException exc) {
+                System.err.println("Could not write the JSON report: " + exc.getMessage());
             }
-            writer.write(cluster.getStats());
-            writer.flush();
-            writer.close();
         }
-        catch (IOException exc) {
+        // An optional "TimelineFile" writes the per-tick history of every device to <TimelineFile>.csv and
+        // to <TimelineFile>.json, in the Chrome trace-event format
+        if (timelineFile != null) {
+            try (Writer csv = new BufferedWriter(new FileWriter(timelineFile + ".csv"));
+                 Writer trace = new BufferedWriter(new FileWriter(timelineFile + ".json"))) {
+                TimelineExporter.writeCsv(cluster.getTimelines(), csv);
+                TimelineExporter.writeChromeTrace(cluster.getTimelines(), trace, tickTime);
+            }
+            catch (IOException exc) {
+                System.err.println("Could not write the timelines: " + exc.getMessage());
+            }
+        }
+        return completed;
+    }
 
+    /**
+     * Sends the messages the bus still holds to its peers, then disconnects it
+     */
+    private static void close(RemoteMessageBus remote) {
+        if (remote == null)
+            return;
+        try {
+            remote.close();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
         }
     }
 }
@@ -0,0 +1,121 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.application.objects.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Writes the state of a quiescent simulation to a binary snapshot, and restores a simulation created from the
+ * same input file to the state of a snapshot.
+ * <p>
+ * The snapshot starts with a header: the magic number, the format version, the last tick handled before the
+ * snapshot and the number of every kind of object, so a snapshot is never applied to a different simulation.
+ * The {@link Cluster}, the {@link CPU}s, the {@link GPU}s, the {@link Student}s with their {@link Model}s and the
+ * {@link ConfrenceInformation}s follow, in the order of the input file. The messages in the mailboxes of the
+ * services are not written: the clock only takes a snapshot once they were all handled, see
+ * {@link bgu.spl.mics.application.messages.CheckpointBroadcast}, and the services re-send the events whose work
+ * was not picked up when they are restored.
+ * <p>
+ * A snapshot is written to a temporary file which then replaces the previous snapshot, so a run that stops
+ * while writing leaves the previous snapshot intact.
+ */
+public class CheckpointFile {
+
+    private static final int MAGIC = 0x43524D53; // "CRMS"
+    private static final int VERSION = 3; // 3: the test draws are keyed by model, the GPUs keep no test stream
+
+    private Cluster cluster;
+    private Collection<Student> students;
+    private Collection<GPU> gpus;
+    private Collection<CPU> cpus;
+    private Collection<ConfrenceInformation> conferences;
+    private List<Model> models = new ArrayList<Model>();
+
+    /**
+     * @param loader the objects of the simulation, as read from its input file
+     * @param cluster the {@link Cluster} of the simulation
+     */
+    public CheckpointFile(InputLoader loader, Cluster cluster) {
+        this.cluster = cluster;
+        this.students = loader.getStudents();
+        this.gpus = loader.getGpus();
+        this.cpus = loader.getCpus();
+        this.conferences = loader.getConferences();
+        for (Student student : students)
+            models.addAll(student.getModels());
+    }
+
+    /**
+     * Writes a snapshot of the simulation
+     * @pre no thread changes the objects of the simulation while the snapshot is written
+     * @param file the snapshot to write, replaced if it exists
+     * @param tick the last tick handled by the services
+     */
+    public void write(File file, int tick) throws IOException {
+        Path target = file.toPath();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try (StateOutput out = new StateOutput(channel, models)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tick);
+            out.writeInt(students.size());
+            out.writeInt(models.size());
+            out.writeInt(gpus.size());
+            out.writeInt(cpus.size());
+            out.writeInt(conferences.size());
+            cluster.saveState(out);
+            for (CPU cpu : cpus)
+                cpu.saveState(out);
+            for (GPU gpu : gpus)
+                gpu.saveState(out);
+            for (Student student : students)
+                student.saveState(out);
+            for (ConfrenceInformation conference : conferences)
+                conference.saveState(out);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores the simulation to the state of a snapshot
+     * @pre the simulation was created from the input file of the snapshot, and its services were not started yet
+     * @param file the snapshot to read
+     * @return the last tick handled before the snapshot, the restored run continues from the following tick
+     * @throws IOException if the snapshot could not be read, or was taken from a different simulation
+     */
+    public int restore(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try (StateInput in = new StateInput(channel, models)) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not a snapshot of a simulation");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException(file + " has an unsupported snapshot version " + version);
+            int tick = in.readInt();
+            if (in.readInt() != students.size() || in.readInt() != models.size() || in.readInt() != gpus.size()
+                    || in.readInt() != cpus.size() || in.readInt() != conferences.size())
+                throw new IOException(file + " is a snapshot of a different simulation");
+            cluster.restoreState(in);
+            for (CPU cpu : cpus)
+                cpu.restoreState(in);
+            for (GPU gpu : gpus)
+                gpu.restoreState(in);
+            for (Student student : students)
+                student.restoreState(in);
+            for (ConfrenceInformation conference : conferences)
+                conference.restoreState(in);
+            return tick;
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.application.objects.*;
+import com.google.gson.stream.JsonReader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Reads the input file of the CRMS as a stream of JSON tokens, creating the {@link Student}s, {@link Model}s,
+ * {@link GPU}s, {@link CPU}s and {@link ConfrenceInformation}s as their values are read, so the JSON text is
+ * never held in memory as a whole.
+ * <p>
+ * The optional settings may appear anywhere in the file, also after the objects they apply to, so they are
+ * applied to the created objects once the whole file was read.
+ */
+public class InputLoader {
+
+    /**
+     * The groups of services a process may run, the {@link GPU}s and {@link CPU}s share the {@link Cluster} of their
+     * process so they always run together
+     */
+    private static final List<String> SERVICE_GROUPS = Arrays.asList("Clock", "Devices", "Conferences", "Students");
+
+    private Cluster cluster;
+    private LinkedList<Student> students = new LinkedList<Student>();
+    private ArrayList<Student> studentsWithoutOwnLimit = new ArrayList<Student>();
+    private ConcurrentLinkedDeque<GPU> gpus = new ConcurrentLinkedDeque<GPU>();
+    private ConcurrentLinkedDeque<CPU> cpus = new ConcurrentLinkedDeque<CPU>();
+    private ArrayList<Integer> cpuCores = new ArrayList<Integer>();
+    private LinkedList<ConfrenceInformation> confInfos = new LinkedList<ConfrenceInformation>();
+    private int tickTime = 1;
+    private int duration = 1000;
+    private String timelineFile = null;
+    private String jsonReportFile = null;
+    private long shutdownTimeout = 5000;
+    private String checkpointFile = null;
+    private int checkpointInterval = 0;
+    private String restoreFile = null;
+    private String journalFile = null;
+    private int busPort = -1;
+    private ArrayList<InetSocketAddress> busPeers = new ArrayList<InetSocketAddress>();
+    private HashSet<String> localServices = new HashSet<String>(SERVICE_GROUPS);
+    private String diskFile = null;
+    private Integer modelsInFlight = null;
+    private TrainingPolicy policy = TrainingPolicy.FIFO;
+    private Integer prefetchWindow = null;
+    private int syncInterval = 0;
+    private PreemptionPolicy preemption = PreemptionPolicy.NEVER;
+    private long seed = new SplittableRandom().nextLong();
+    private Integer laneWidth = null;
+
+    private InputLoader(Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    /**
+     * Reads an input file and creates the objects it describes
+     * @param input the input .json file
+     * @param cluster the {@link Cluster} the {@link GPU}s and {@link CPU}s belong to, they are added to it
+     * @return the loader holding the created objects
+     * @throws IOException if the file could not be read or is not a valid input file
+     */
+    public static InputLoader load(File input, Cluster cluster) throws IOException {
+        InputLoader loader = new InputLoader(cluster);
+        try (JsonReader reader = new JsonReader(new BufferedReader(new FileReader(input), 1 << 16))) {
+            loader.readInput(reader);
+            loader.checkSettings();
+        } catch (IllegalStateException | NumberFormatException exc) {
+            throw new IOException("Malformed input file " + input + ": " + exc.getMessage(), exc);
+        }
+        loader.applySettings();
+        return loader;
+    }
+
+    public LinkedList<Student> getStudents() {return students;}
+
+    public ConcurrentLinkedDeque<GPU> getGpus() {return gpus;}
+
+    public ConcurrentLinkedDeque<CPU> getCpus() {return cpus;}
+
+    public LinkedList<ConfrenceInformation> getConferences() {return confInfos;}
+
+    public int getTickTime() {return tickTime;}
+
+    public int getDuration() {return duration;}
+
+    /**
+     * @return the prefix of the timeline files of the run, or null if the timelines should not be written
+     */
+    public String getTimelineFile() {return timelineFile;}
+
+    /**
+     * @return the path of the JSON report of the run, or null if only the text report should be written
+     */
+    public String getJsonReportFile() {return jsonReportFile;}
+
+    /**
+     * @return how long to wait for the services to subscribe before the clock starts, and to terminate once the
+     *         clock finished, in milliseconds
+     */
+    public long getShutdownTimeout() {return shutdownTimeout;}
+
+    /**
+     * @return the path of the snapshot the run writes, or null if the run takes no snapshots
+     */
+    public String getCheckpointFile() {return checkpointFile;}
+
+    /**
+     * @return the number of ticks between snapshots, 0 if the run takes no snapshots
+     */
+    public int getCheckpointInterval() {return checkpointInterval;}
+
+    /**
+     * @return the path of the snapshot the run is restored from, or null if the run starts from the first tick
+     */
+    public String getRestoreFile() {return restoreFile;}
+
+    /**
+     * @return the path of the journal of the bus traffic of the run, or null if the traffic should not be recorded
+     */
+    public String getJournalFile() {return journalFile;}
+
+    /**
+     * @return the loopback port the bus of the run accepts peers on, or -1 if it does not accept peers
+     */
+    public int getBusPort() {return busPort;}
+
+    /**
+     * @return the addresses of the peers the bus of the run connects to
+     */
+    public List<InetSocketAddress> getBusPeers() {return busPeers;}
+
+    /**
+     * @return true iff the services of the run exchange messages with services of other processes
+     */
+    public boolean isDistributed() {return busPort >= 0 || !busPeers.isEmpty();}
+
+    /**
+     * @param group "Clock", "Devices", "Conferences" or "Students"
+     * @return true iff the services of {@code group} run in this process
+     */
+    public boolean runsLocally(String group) {return localServices.contains(group);}
+
+    private void readInput(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "Students": readStudents(reader); break;
+                case "GPUS": readGpus(reader); break;
+                case "CPUS": readCpus(reader); break;
+                case "Conferences": readConferences(reader); break;
+                case "TickTime": tickTime = reader.nextInt(); break;
+                case "Duration": duration = reader.nextInt(); break;
+                // An optional "ModelsInFlight" lets every student work on that many models at the same time,
+                // a student may override it with its own "ModelsInFlight"
+                case "ModelsInFlight": modelsInFlight = reader.nextInt(); break;
+                // An optional "TrainingPolicy" ("FIFO", "SJF" or "Priority") orders the training queue of every GPU
+                case "TrainingPolicy": policy = TrainingPolicy.fromString(reader.nextString()); break;
+                // An optional "DataParallelism" trains a single model on up to that many GPUs, adding up the trained
+                // samples of every GPU into the model once every "SyncInterval" batches (or once its shard is done)
+                case "DataParallelism": cluster.setDataParallelism(reader.nextInt()); break;
+                case "SyncInterval": syncInterval = reader.nextInt(); break;
+                // An optional "PrefetchWindow" sets how many upcoming batches every GPU keeps staged in its VRAM
+                case "PrefetchWindow": prefetchWindow = reader.nextInt(); break;
+                // An optional "PreemptionRatio" lets a queued model pause the training model when it needs at most
+                // that fraction of the time the training model still needs, the paused model resumes where it stopped
+                case "PreemptionRatio": preemption = PreemptionPolicy.byRemainingRatio(readPreemptionRatio(reader)); break;
+                // An optional "Seed" makes the test results of the run reproducible, every model gets its own draw
+                case "Seed": seed = reader.nextLong(); break;
+                // An optional "CPULaneWidth" sets how many cores form a single parallel lane of a CPU
+                case "CPULaneWidth": laneWidth = reader.nextInt(); break;
+                // An optional "DiskFile" moves the staging disk of the cluster off the heap, into a memory-mapped file
+                case "DiskFile": diskFile = reader.nextString(); break;
+                // An optional "TimelineFile" writes the per-tick history of every device when the run is over
+                case "TimelineFile": timelineFile = reader.nextString(); break;
+                // An optional "JsonReportFile" also writes the report of the run as JSON
+                case "JsonReportFile": jsonReportFile = reader.nextString(); break;
+                // An optional "ShutdownTimeout" (in milliseconds) bounds the wait for the services to subscribe
+                // before the first tick, and to terminate once the clock stops
+                case "ShutdownTimeout": shutdownTimeout = reader.nextLong(); break;
+                // An optional "CheckpointFile" writes a snapshot of the run every "CheckpointInterval" ticks, and an
+                // optional "RestoreFile" continues a run of the same input file from its snapshot
+                case "CheckpointFile": checkpointFile = reader.nextString(); break;
+                case "CheckpointInterval": checkpointInterval = reader.nextInt(); break;
+                case "RestoreFile": restoreFile = reader.nextString(); break;
+                // An optional "JournalFile" records the traffic of the message-bus, for replaying it offline
+                case "JournalFile": journalFile = reader.nextString(); break;
+                // An optional "BusPort" accepts peer processes on that loopback port, and an optional "BusPeers"
+                // (["host:port", ...]) connects to peer processes, so services of different processes exchange messages.
+                // An optional "LocalServices" (a subset of "Clock", "Devices", "Conferences" and "Students") sets the
+                // services this process runs
+                case "BusPort": busPort = reader.nextInt(); break;
+                case "BusPeers": readBusPeers(reader); break;
+                case "LocalServices": readLocalServices(reader); break;
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.endObject();
+    }
+
+    private double readPreemptionRatio(JsonReader reader) throws IOException {
+        double ratio = reader.nextDouble();
+        // With a ratio of 1 or more, a paused model could pause the model that took its place, back and forth
+        if (!(ratio > 0 && ratio < 1))
+            throw new IllegalStateException("The preemption ratio must be between 0 and 1, not " + ratio);
+        return ratio;
+    }
+
+    private void readBusPeers(JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String peer = reader.nextString();
+            int separator = peer.lastIndexOf(':');
+            if (separator < 0)
+                throw new IllegalStateException("A bus peer must be given as host:port, not " + peer);
+            busPeers.add(new InetSocketAddress(peer.substring(0, separator), Integer.parseInt(peer.substring(separator + 1))));
+        }
+        reader.endArray();
+    }
+
+    private void readLocalServices(JsonReader reader) throws IOException {
+        localServices.clear();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String group = reader.nextString();
+            if (!SERVICE_GROUPS.contains(group))
+                throw new IllegalStateException("Unknown group of services " + group);
+            localServices.add(group);
+        }
+        reader.endArray();
+    }
+
+    private void readStudents(JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String name = null;
+            String department = null;
+            String status = null;
+            Integer ownLimit = null;
+            // The models may appear before the fields of their student, so they are created once the student is
+            LinkedList<String[]> pendingModels = null;
+            Student student = null;
+            ConcurrentLinkedDeque<Model> models = new ConcurrentLinkedDeque<Model>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name": name = reader.nextString(); break;
+                    case "department": department = reader.nextString(); break;
+                    case "status": status = reader.nextString(); break;
+                    case "ModelsInFlight": ownLimit = reader.nextInt(); break;
+                    case "models":
+                        if (name != null && department != null && status != null) {
+                            student = new Student(name, department, status);
+                            readModels(reader, student, models);
+                        }
+                        else
+                            pendingModels = readModelFields(reader);
+                        break;
+                    default: reader.skipValue(); break;
+                }
+            }
+            reader.endObject();
+            if (name == null)
+                throw new IllegalStateException("Student without a name");
+            if (department == null)
+                throw new IllegalStateException("Student without a department: " + name);
+            if (status == null)
+                throw new IllegalStateException("Student without a status: " + name);
+            if (student == null)
+                student = new Student(name, department, status);
+            if (pendingModels != null) {
+                for (String[] fields : pendingModels) {
+                    models.addLast(createModel(fields, student));
+                }
+            }
+            student.setModels(models);
+            if (ownLimit != null)
+                student.setModelsInFlight(ownLimit);
+            else
+                studentsWithoutOwnLimit.add(student);
+            students.addLast(student);
+        }
+        reader.endArray();
+    }
+
+    private void readModels(JsonReader reader, Student student, ConcurrentLinkedDeque<Model> models)
+            throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String[] fields = readModel(reader);
+            models.addLast(createModel(fields, student));
+        }
+        reader.endArray();
+    }
+
+    /**
+     * @param fields the name, type and size of a model, as read by {@link #readModel(JsonReader)}
+     * @param student the {@link Student} the model belongs to
+     */
+    private Model createModel(String[] fields, Student student) {
+        if (fields[0] == null)
+            throw new IllegalStateException("Model without a name, of student " + student.getName());
+        if (fields[1] == null)
+            throw new IllegalStateException("Model without a type: " + fields[0] + " of student " + student.getName());
+        if (fields[2] == null)
+            throw new IllegalStateException("Model without a size: " + fields[0] + " of student " + student.getName());
+        return new Model(fields[0], new Data(fields[1], Integer.parseInt(fields[2])), student);
+    }
+
+    private LinkedList<String[]> readModelFields(JsonReader reader) throws IOException {
+        LinkedList<String[]> fields = new LinkedList<String[]>();
+        reader.beginArray();
+        while (reader.hasNext())
+            fields.addLast(readModel(reader));
+        reader.endArray();
+        return fields;
+    }
+
+    /**
+     * @return the name, type and size of a single model
+     */
+    private String[] readModel(JsonReader reader) throws IOException {
+        String[] fields = new String[3];
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "name": fields[0] = reader.nextString(); break;
+                case "type": fields[1] = reader.nextString(); break;
+                case "size": fields[2] = reader.nextString(); break;
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.endObject();
+        return fields;
+    }
+
+    private void readGpus(JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext())
+            gpus.addLast(new GPU(reader.nextString(), cluster));
+        reader.endArray();
+    }
+
+    private void readCpus(JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext())
+            cpuCores.add(reader.nextInt());
+        reader.endArray();
+    }
+
+    private void readConferences(JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String name = null;
+            int date = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "name": name = reader.nextString(); break;
+                    case "date": date = reader.nextInt(); break;
+                    default: reader.skipValue(); break;
+                }
+            }
+            reader.endObject();
+            confInfos.addLast(new ConfrenceInformation(name, date));
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Checks the settings which depend on each other, once the whole file was read
+     */
+    private void checkSettings() {
+        // The messages in flight between processes are not part of a snapshot, so it would not be quiescent
+        if (isDistributed() && (checkpointFile != null || restoreFile != null))
+            throw new IllegalStateException("A distributed run cannot write or restore snapshots");
+    }
+
+    /**
+     * Applies the settings read from the whole file to the created objects, and adds the {@link GPU}s and
+     * {@link CPU}s to the {@link Cluster}
+     */
+    private void applySettings() {
+        if (modelsInFlight != null) {
+            for (Student student : studentsWithoutOwnLimit)
+                student.setModelsInFlight(modelsInFlight);
+        }
+        studentsWithoutOwnLimit = null;
+        // The test draw of a model is keyed by its position in the input, not by the GPU that happens to test it
+        long modelId = 0;
+        for (Student student : students) {
+            for (Model model : student.getModels())
+                model.setTestSeed(seed ^ modelId++);
+        }
+        for (GPU gpu : gpus) {
+            gpu.setTrainingPolicy(policy);
+            gpu.setSyncInterval(syncInterval);
+            gpu.setPreemptionPolicy(preemption);
+            if (prefetchWindow != null)
+                gpu.setPrefetchWindow(prefetchWindow);
+        }
+        // The number of lanes of a CPU is set when it is created, so the CPUs are created once the lane width is known
+        for (int cores : cpuCores) {
+            int lanes = 1;
+            if (laneWidth != null && laneWidth > 0)
+                lanes = Math.max(1, cores / laneWidth);
+            cpus.addLast(new CPU(cores, lanes, cluster));
+        }
+        cpuCores = null;
+        if (diskFile != null) {
+            // The disk deletes its file once it is closed, see Cluster#closeDisk()
+            File file = new File(diskFile);
+            try {
+                cluster.setDisk(new MappedDisk(file));
+            } catch (IOException exc) {
+                System.err.println("Could not open the disk file " + file + ", staging batches on the heap");
+            }
+        }
+        // Adding the cpus and gpus to the cluster
+        cluster.setCpus(cpus);
+        cluster.setGpus(gpus);
+    }
+}
@@ -0,0 +1,115 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.application.objects.*;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes the report of a run, either in the text format of the output file or as JSON for automated analysis.
+ * Both formats are streamed to the given writer, so writing a report takes time linear in its size and
+ * never builds the whole report in memory.
+ */
+public class ReportWriter {
+
+    private ReportWriter() {}
+
+    /**
+     * Writes the report in the text format of the output file
+     * @param writer the destination, it is flushed but not closed
+     */
+    public static void writeText(List<Student> students, List<ConfrenceInformation> confInfos, Cluster cluster,
+                                 Writer writer) throws IOException {
+        writer.write("Students:\n");
+        for (Student student : students) {
+            student.writeTo(writer);
+        }
+        writer.write("Conferences:\n");
+        for (ConfrenceInformation confInfo : confInfos) {
+            confInfo.writeTo(writer);
+        }
+        cluster.writeStats(writer);
+        writer.flush();
+    }
+
+    /**
+     * Writes the report as a single JSON object, holding the same information as the text format and the
+     * statistics of every device
+     * @param writer the destination, it is flushed but not closed
+     */
+    public static void writeJson(List<Student> students, List<ConfrenceInformation> confInfos, Cluster cluster,
+                                 Writer writer) throws IOException {
+        JsonWriter json = new JsonWriter(writer);
+        json.setIndent("  ");
+        json.beginObject();
+        json.name("students").beginArray();
+        for (Student student : students) {
+            json.beginObject();
+            json.name("name").value(student.getName());
+            json.name("department").value(student.getDepartment());
+            json.name("status").value(student.statusToString());
+            json.name("publications").value(student.getPublications());
+            json.name("papersRead").value(student.getPapersRead());
+            json.name("trainedModels").beginArray();
+            for (Model model : student.getModels()) {
+                if (model.isTrained() || model.isTested())
+                    writeModel(json, model);
+            }
+            json.endArray();
+            json.endObject();
+        }
+        json.endArray();
+        json.name("conferences").beginArray();
+        for (ConfrenceInformation confInfo : confInfos) {
+            json.beginObject();
+            json.name("name").value(confInfo.getName());
+            json.name("date").value(confInfo.getDate());
+            json.name("publications").beginArray();
+            for (Model model : confInfo.getModels()) {
+                writeModel(json, model);
+            }
+            json.endArray();
+            json.endObject();
+        }
+        json.endArray();
+        Cluster.StatisticsSnapshot stats = cluster.getStatisticsSnapshot();
+        json.name("statistics").beginObject();
+        json.name("gpuTimeUsed").value(stats.getGpuTimeUsed());
+        json.name("cpuTimeUsed").value(stats.getCpuTimeUsed());
+        json.name("batchesProcessed").value(stats.getBatchesProcessed());
+        json.name("modelsTrained").value(stats.getModelsTrained().size());
+        json.name("devices").beginArray();
+        for (DeviceStatistics.Snapshot device : stats.getCpuStats()) {
+            writeDevice(json, device);
+        }
+        for (DeviceStatistics.Snapshot device : stats.getGpuStats()) {
+            writeDevice(json, device);
+        }
+        json.endArray();
+        json.endObject();
+        json.endObject();
+        json.flush();
+    }
+
+    private static void writeModel(JsonWriter json, Model model) throws IOException {
+        json.beginObject();
+        json.name("name").value(model.getName());
+        json.name("student").value(model.getStudent().getName());
+        json.name("type").value(model.getData().typeToString());
+        json.name("size").value(model.getData().getSize());
+        json.name("results").value(model.isTested() ? (model.isGood() ? "Good" : "Bad") : "None");
+        json.name("published").value(model.isPublished());
+        json.endObject();
+    }
+
+    private static void writeDevice(JsonWriter json, DeviceStatistics.Snapshot device) throws IOException {
+        json.beginObject();
+        json.name("name").value(device.getName());
+        json.name("busyTicks").value(device.getBusyTicks());
+        json.name("idleTicks").value(device.getIdleTicks());
+        json.name("batches").value(device.getBatches());
+        json.name("utilization").value(device.getUtilization());
+        json.endObject();
+    }
+}
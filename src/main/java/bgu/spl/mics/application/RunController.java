@@ -0,0 +1,174 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.services.ManagedService;
+import bgu.spl.mics.application.services.StartupBarrier;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts the {@link MicroService}s of a run, each on its own thread, and waits for all of them to finish.
+ * <p>
+ * The services start in parallel. The services handling events subscribe in the order they were started, the
+ * others subscribe in parallel after them, through a {@link StartupBarrier}. The clock is only started once every
+ * service subscribed, so no service misses a tick.
+ * <p>
+ * The run is over once the clock finished, after which every other service should terminate as soon as it
+ * handles the {@link bgu.spl.mics.application.messages.TerminatorBroadcast}. Every service counts down a latch
+ * when its event loop returns, so the report of the run is only written after the last callbacks of all the
+ * services, without polling. Services that do not finish within the shutdown timeout are reported and
+ * abandoned; their threads are daemons, so they do not keep the application alive.
+ * <p>
+ * A process that does not run the clock of a distributed run waits for its services only, they terminate once the
+ * clock of another process finished. If a peer is lost before that, or if the run takes longer than expected, the
+ * services are given the shutdown timeout to terminate and are abandoned.
+ * <p>
+ * The clock and every running service are the parties of the checkpoint {@link Phaser} of the run, a service
+ * leaves it once its event loop returns.
+ */
+public class RunController {
+
+    private ArrayList<Thread> threads = new ArrayList<Thread>();
+    private CountDownLatch clockDone = new CountDownLatch(1);
+    private CountDownLatch servicesDone;
+    private CountDownLatch remoteRunDone = new CountDownLatch(1); // the services finished, or a peer was lost
+    private StartupBarrier startup;
+    private Phaser checkpoints = new Phaser(1); // the clock is registered from the start
+    private boolean clockStarted = false;
+    private Boolean subscribed = null; // whether every service subscribed in time, null until awaited
+    private long creationTime = System.nanoTime();
+    private long timeToFirstTick = -1; // in nanoseconds
+
+    /**
+     * @param services the number of services, not including the clock, that will be started
+     */
+    public RunController(int services) {
+        servicesDone = new CountDownLatch(services);
+        startup = new StartupBarrier(services);
+    }
+
+    /**
+     * Starts a service of the run on a new thread. If the service handles events, it subscribes after the
+     * previously started services that handle events
+     * @pre fewer than {@code services} services were started
+     * @param service the service to start
+     * @param threadName the name of the service's thread
+     */
+    public void start(ManagedService service, String threadName) {
+        service.joinStartup(startup);
+        checkpoints.register();
+        startThread(service, threadName, servicesDone, true);
+    }
+
+    /**
+     * Waits for every started service to subscribe, only the first call waits
+     * @param startupTimeout how long to wait for the services to subscribe, in milliseconds
+     * @return true iff every service subscribed within {@code startupTimeout}
+     */
+    public boolean awaitStartup(long startupTimeout) throws InterruptedException {
+        if (subscribed == null) {
+            subscribed = startup.awaitAll(startupTimeout);
+            if (!subscribed)
+                System.err.println("Only " + startup.getReadyServices() + " of " + startup.getParties()
+                        + " services subscribed within " + startupTimeout + " ms");
+        }
+        return subscribed;
+    }
+
+    /**
+     * Waits for every started service to subscribe, then starts the clock of the run on a new thread.
+     * The run is over once the clock finished.
+     * @pre the clock was not started yet
+     * @param startupTimeout how long to wait for the services to subscribe, in milliseconds
+     * @return true iff every service subscribed before the clock started
+     */
+    public boolean startClock(MicroService clock, String threadName, long startupTimeout) throws InterruptedException {
+        if (clockStarted)
+            throw new IllegalStateException("The clock of the run was already started");
+        clockStarted = true;
+        boolean ready = awaitStartup(startupTimeout);
+        timeToFirstTick = System.nanoTime() - creationTime;
+        startThread(clock, threadName, clockDone, false);
+        return ready;
+    }
+
+    /**
+     * @return the {@link Phaser} the clock uses to take checkpoints of the run
+     */
+    public Phaser getCheckpointPhaser() {return checkpoints;}
+
+    /**
+     * @return the time from the creation of the controller until the clock was started, in milliseconds,
+     *         or -1 if the clock was not started yet
+     */
+    public double getTimeToFirstTick() {
+        if (timeToFirstTick < 0)
+            return -1;
+        return timeToFirstTick / 1e6;
+    }
+
+    /**
+     * Waits for the clock to finish, then for every other service to terminate
+     * @pre the clock was started
+     * @param shutdownTimeout how long to wait for the services once the clock finished, in milliseconds
+     * @return true iff every service terminated within {@code shutdownTimeout}
+     */
+    public boolean awaitCompletion(long shutdownTimeout) throws InterruptedException {
+        clockDone.await();
+        return awaitServices(shutdownTimeout);
+    }
+
+    /**
+     * Waits for the services of a process whose clock runs in another process. The wait ends once every service
+     * terminated, once {@link #peerLost()} was called, or once {@code runTimeout} passed, whichever comes first,
+     * after which the services are given {@code shutdownTimeout} to terminate.
+     * @pre the clock was not started
+     * @param runTimeout the longest the run is expected to take, in milliseconds
+     * @param shutdownTimeout how long to wait for the services once the wait ended, in milliseconds
+     * @return true iff every service terminated
+     */
+    public boolean awaitRemoteCompletion(long runTimeout, long shutdownTimeout) throws InterruptedException {
+        if (!remoteRunDone.await(runTimeout, TimeUnit.MILLISECONDS))
+            System.err.println("The run did not finish within " + runTimeout + " ms");
+        return awaitServices(shutdownTimeout);
+    }
+
+    /**
+     * Ends the wait of {@link #awaitRemoteCompletion(long, long)}, since the services of this process will not
+     * get the messages of a lost peer, such as the {@link bgu.spl.mics.application.messages.TerminatorBroadcast}
+     * of its clock
+     */
+    public void peerLost() {
+        remoteRunDone.countDown();
+    }
+
+    private boolean awaitServices(long shutdownTimeout) throws InterruptedException {
+        if (servicesDone.await(shutdownTimeout, TimeUnit.MILLISECONDS))
+            return true;
+        for (Thread thread : threads) {
+            if (thread.isAlive())
+                System.err.println(thread.getName() + " did not terminate within " + shutdownTimeout + " ms");
+        }
+        return false;
+    }
+
+    private void startThread(MicroService service, String threadName, CountDownLatch done, boolean checkpointParty) {
+        Thread thread = new Thread(() -> {
+            try {
+                service.run();
+            } finally {
+                if (checkpointParty)
+                    checkpoints.arriveAndDeregister();
+                done.countDown();
+                if (servicesDone.getCount() == 0)
+                    remoteRunDone.countDown();
+            }
+        }, threadName);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+}
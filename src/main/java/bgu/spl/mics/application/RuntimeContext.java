@@ -0,0 +1,108 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.BusContext;
+import bgu.spl.mics.CountingMessageBus;
+import bgu.spl.mics.JournalingMessageBus;
+import bgu.spl.mics.MessageBus;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MessageJournal;
+import bgu.spl.mics.RemoteMessageBus;
+import bgu.spl.mics.application.objects.Cluster;
+import bgu.spl.mics.application.services.TimeService;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The runtime of a single simulation: its {@link MessageBus}, its {@link Cluster} and its clock.
+ * <p>
+ * The default context uses the singletons, and a context created with {@link #create()} owns new instances,
+ * so several simulations can run in the same JVM without sharing any state.
+ * Services constructed while a context is entered on the current thread send and receive their messages on
+ * the bus of that context.
+ */
+public class RuntimeContext {
+
+    private MessageBus bus;
+    private Cluster cluster;
+
+    private static class DefaultHolder {
+        private static RuntimeContext instance = new RuntimeContext(MessageBusImpl.getInstance(), Cluster.getInstance());
+    }
+
+    private RuntimeContext(MessageBus bus, Cluster cluster) {
+        this.bus = bus;
+        this.cluster = cluster;
+    }
+
+    /**
+     * @return the context of the singleton {@link MessageBusImpl} and {@link Cluster}
+     */
+    public static RuntimeContext defaultContext() {
+        return DefaultHolder.instance;
+    }
+
+    /**
+     * @return a new context, with its own {@link MessageBus} and {@link Cluster}
+     */
+    public static RuntimeContext create() {
+        return new RuntimeContext(new MessageBusImpl(), new Cluster());
+    }
+
+    /**
+     * @param journal the journal the traffic of the bus is recorded in
+     * @return a context with the same {@link Cluster}, whose bus records its traffic and hands the messages to the
+     *         bus of this context
+     */
+    public RuntimeContext withJournal(MessageJournal journal) {
+        return new RuntimeContext(new JournalingMessageBus(bus, journal), cluster);
+    }
+
+    /**
+     * @param sent the counter every event and broadcast sent by the services of the returned context is added to
+     * @return a context with the same {@link Cluster}, whose bus counts the sent messages and hands them to the
+     *         bus of this context
+     */
+    public RuntimeContext withSendCounter(LongAdder sent) {
+        return new RuntimeContext(new CountingMessageBus(bus, sent), cluster);
+    }
+
+    /**
+     * @param remote a bus connected to the buses of other processes, whose local bus is the bus of this context
+     * @return a context with the same {@link Cluster}, whose services exchange messages with other processes
+     */
+    public RuntimeContext withRemote(RemoteMessageBus remote) {
+        return new RuntimeContext(remote, cluster);
+    }
+
+    public MessageBus getBus() {return bus;}
+
+    public Cluster getCluster() {return cluster;}
+
+    /**
+     * Creates the clock of the simulation, a {@link TimeService} using the bus of this context
+     * @param tickTime the length of a tick in milliseconds
+     * @param duration the number of ticks of the simulation
+     */
+    public TimeService createClock(int tickTime, int duration) {
+        MessageBus previous = BusContext.bind(bus);
+        try {
+            return new TimeService(tickTime, duration);
+        } finally {
+            BusContext.restore(previous);
+        }
+    }
+
+    /**
+     * Makes the services constructed by the current thread use the bus of this context, until {@link #exit()}
+     */
+    public void enter() {
+        BusContext.bind(bus);
+    }
+
+    /**
+     * Makes the services constructed by the current thread use the default bus again
+     */
+    public void exit() {
+        BusContext.unbind();
+    }
+}
@@ -0,0 +1,101 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.application.objects.DeviceTimeline;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Writes the {@link DeviceTimeline}s of the devices of a run, so idle devices and pipeline bubbles can be
+ * inspected after the run.
+ * Both formats are written one run of ticks at a time, without building the whole output in memory.
+ */
+public class TimelineExporter {
+
+    private TimelineExporter() {}
+
+    /**
+     * Writes the timelines as CSV, a line per run of ticks in which neither the state of a device nor its sampled
+     * queue depth changed
+     * @param timelines the timelines to write, by device name
+     * @param writer the destination, it is not closed
+     */
+    public static void writeCsv(Map<String, DeviceTimeline> timelines, Writer writer) throws IOException {
+        writer.write("device,start_tick,end_tick,state,queue_depth\n");
+        for (Map.Entry<String, DeviceTimeline> entry : timelines.entrySet()) {
+            for (int[] run : entry.getValue().getRuns()) {
+                writer.write(entry.getKey() + "," + run[0] + "," + (run[0] + run[1]) + ","
+                        + (run[2] == 1 ? "busy" : "idle") + "," + run[3] + "\n");
+            }
+        }
+        writer.flush();
+    }
+
+    /**
+     * Writes the timelines in the Chrome trace-event format (readable by chrome://tracing and Perfetto).
+     * Every device is a thread of a single process, its busy runs are complete events and the depth of its
+     * queue is a counter.
+     * @param timelines the timelines to write, by device name
+     * @param writer the destination, it is not closed
+     * @param tickTime the length of a tick in milliseconds
+     */
+    public static void writeChromeTrace(Map<String, DeviceTimeline> timelines, Writer writer, int tickTime)
+            throws IOException {
+        long tickMicros = tickTime * 1000L;
+        JsonWriter json = new JsonWriter(writer);
+        json.beginObject();
+        json.name("displayTimeUnit").value("ms");
+        json.name("traceEvents").beginArray();
+        int tid = 1;
+        for (Map.Entry<String, DeviceTimeline> entry : timelines.entrySet()) {
+            String device = entry.getKey();
+            json.beginObject();
+            json.name("name").value("thread_name");
+            json.name("ph").value("M");
+            json.name("pid").value(1);
+            json.name("tid").value(tid);
+            json.name("args").beginObject().name("name").value(device).endObject();
+            json.endObject();
+            int lastDepth = -1;
+            int busyStart = -1; // consecutive busy runs that differ only by queue depth form a single event
+            int end = 0;
+            for (int[] run : entry.getValue().getRuns()) {
+                if (run[2] == 1 && busyStart == -1)
+                    busyStart = run[0];
+                else if (run[2] == 0 && busyStart != -1) {
+                    writeBusy(json, tid, busyStart * tickMicros, (run[0] - busyStart) * tickMicros);
+                    busyStart = -1;
+                }
+                end = run[0] + run[1];
+                if (run[3] != lastDepth) {
+                    json.beginObject();
+                    json.name("name").value(device + " queue");
+                    json.name("ph").value("C");
+                    json.name("pid").value(1);
+                    json.name("ts").value(run[0] * tickMicros);
+                    json.name("args").beginObject().name("depth").value(run[3]).endObject();
+                    json.endObject();
+                    lastDepth = run[3];
+                }
+            }
+            if (busyStart != -1)
+                writeBusy(json, tid, busyStart * tickMicros, (end - busyStart) * tickMicros);
+            tid++;
+        }
+        json.endArray();
+        json.endObject();
+        json.flush();
+    }
+
+    private static void writeBusy(JsonWriter json, int tid, long ts, long dur) throws IOException {
+        json.beginObject();
+        json.name("name").value("busy");
+        json.name("ph").value("X");
+        json.name("pid").value(1);
+        json.name("tid").value(tid);
+        json.name("ts").value(ts);
+        json.name("dur").value(dur);
+        json.endObject();
+    }
+}
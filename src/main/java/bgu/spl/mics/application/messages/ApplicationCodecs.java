@@ -0,0 +1,219 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.Event;
+import bgu.spl.mics.Future;
+import bgu.spl.mics.MessageCodec;
+import bgu.spl.mics.MessageCodecs;
+import bgu.spl.mics.RemoteCompletionHandler;
+import bgu.spl.mics.ResultCodec;
+import bgu.spl.mics.Varint;
+import bgu.spl.mics.application.objects.Model;
+import bgu.spl.mics.application.objects.ModelProgress;
+import bgu.spl.mics.application.objects.Student;
+
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+/**
+ * The {@link MessageCodec}s of the messages of the CRMS.
+ * {@link Model}s and {@link Student}s are written as their ids in a {@link ModelDirectory}, every number as a
+ * {@link Varint}. A {@link Model} is followed by its {@link ModelProgress}, so a process learns about the training
+ * and the results of a remote service. Decoding only resolves the ids, the decoded progress is attached to the
+ * {@link ModelEvent} and applied by the service owning the {@link Model}, see {@link ModelEvent#applyProgress()}.
+ * The continuations of a {@link ModelEvent} stay with the sender, the decoded event has none.
+ * {@link CheckpointBroadcast} is not encoded, its {@link java.util.concurrent.Phaser} is local to a process.
+ */
+public final class ApplicationCodecs {
+
+    private ApplicationCodecs() {}
+
+    /**
+     * Creates a registry of the codecs of all the encodable messages, always registered in the same order
+     * @param directory resolves the {@link Model}s and {@link Student}s the messages refer to
+     */
+    public static MessageCodecs create(ModelDirectory directory) {
+        return new MessageCodecs()
+                .register(new TickCodec())
+                .register(new TerminatorCodec())
+                .register(new ModelEventCodec<ProcessModelEvent>(ProcessModelEvent.class, ProcessModelEvent::new, directory))
+                .register(new ModelEventCodec<TrainModelEvent>(TrainModelEvent.class, TrainModelEvent::new, directory))
+                .register(new ModelEventCodec<TestModelEvent>(TestModelEvent.class, TestModelEvent::new, directory))
+                .register(new ModelEventCodec<PublishResultsEvent>(PublishResultsEvent.class, PublishResultsEvent::new,
+                        directory))
+                .register(new ConferenceCodec(directory));
+    }
+
+    /**
+     * Creates the codec of the results of the events of the CRMS, which are all {@link Model}s
+     * @param directory resolves the {@link Model}s the results refer to
+     */
+    public static ResultCodec results(ModelDirectory directory) {
+        return new ModelResultCodec(directory);
+    }
+
+    /**
+     * Creates the handler of the events completed by other processes: it resolves the {@link Future} with the
+     * {@link Model} of this process and completes the {@link ModelEvent} with the progress of the other process,
+     * which the sender applies before its continuations act on the {@link Model}
+     */
+    public static RemoteCompletionHandler completions() {
+        return new ModelCompletionHandler();
+    }
+
+    private static void writeModel(ModelDirectory directory, Model model, ByteBuffer out) {
+        Varint.writeInt(out, directory.idOf(model));
+        ModelProgress.write(model, out);
+    }
+
+    private static class TickCodec implements MessageCodec<TickBroadcast> {
+
+        @Override
+        public Class<TickBroadcast> getType() {return TickBroadcast.class;}
+
+        @Override
+        public void encode(TickBroadcast message, ByteBuffer out) {
+            Varint.writeInt(out, message.getTime());
+        }
+
+        @Override
+        public TickBroadcast decode(ByteBuffer in) {
+            return new TickBroadcast(Varint.readInt(in));
+        }
+    }
+
+    private static class TerminatorCodec implements MessageCodec<TerminatorBroadcast> {
+
+        @Override
+        public Class<TerminatorBroadcast> getType() {return TerminatorBroadcast.class;}
+
+        @Override
+        public void encode(TerminatorBroadcast message, ByteBuffer out) {}
+
+        @Override
+        public TerminatorBroadcast decode(ByteBuffer in) {
+            return new TerminatorBroadcast();
+        }
+    }
+
+    /**
+     * Encodes a {@link ModelEvent} as its {@link Model}
+     */
+    private static class ModelEventCodec<E extends ModelEvent> implements MessageCodec<E> {
+
+        private final Class<E> type;
+        private final Function<Model, E> constructor;
+        private final ModelDirectory directory;
+
+        ModelEventCodec(Class<E> type, Function<Model, E> constructor, ModelDirectory directory) {
+            this.type = type;
+            this.constructor = constructor;
+            this.directory = directory;
+        }
+
+        @Override
+        public Class<E> getType() {return type;}
+
+        @Override
+        public void encode(E message, ByteBuffer out) {
+            writeModel(directory, message.getModel(), out);
+        }
+
+        @Override
+        public E decode(ByteBuffer in) {
+            E event = constructor.apply(directory.getModel(Varint.readInt(in)));
+            event.setProgress(ModelProgress.read(in));
+            return event;
+        }
+    }
+
+    /**
+     * A decoded {@link Model} result: the {@link Model} of this process and the progress of the process that
+     * completed the event
+     */
+    private static class ModelResult {
+
+        private final Model model;
+        private final ModelProgress progress;
+
+        ModelResult(Model model, ModelProgress progress) {
+            this.model = model;
+            this.progress = progress;
+        }
+    }
+
+    /**
+     * Encodes a {@link Model} result, or its absence
+     */
+    private static class ModelResultCodec implements ResultCodec {
+
+        private final ModelDirectory directory;
+
+        ModelResultCodec(ModelDirectory directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public void encode(Object result, ByteBuffer out) {
+            out.put((byte) (result == null ? 0 : 1));
+            if (result != null)
+                writeModel(directory, (Model) result, out);
+        }
+
+        @Override
+        public Object decode(ByteBuffer in) {
+            if (in.get() == 0)
+                return null;
+            Model model = directory.getModel(Varint.readInt(in));
+            return new ModelResult(model, ModelProgress.read(in));
+        }
+    }
+
+    private static class ModelCompletionHandler implements RemoteCompletionHandler {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void completed(Event<?> event, Future<?> future, Object result) {
+            ModelResult decoded = (ModelResult) result;
+            Model model = decoded == null ? null : decoded.model;
+            ((Future<Model>) future).resolve(model);
+            if (event instanceof ModelEvent)
+                ((ModelEvent) event).completedRemotely(model, decoded == null ? null : decoded.progress);
+        }
+    }
+
+    /**
+     * Encodes a {@link PublishConferenceBroadcast} as the ids of its authors and their number of publications
+     */
+    private static class ConferenceCodec implements MessageCodec<PublishConferenceBroadcast> {
+
+        private final ModelDirectory directory;
+
+        ConferenceCodec(ModelDirectory directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        public Class<PublishConferenceBroadcast> getType() {return PublishConferenceBroadcast.class;}
+
+        @Override
+        public void encode(PublishConferenceBroadcast message, ByteBuffer out) {
+            Varint.writeInt(out, message.getNumberOfAuthors());
+            for (int i = 0; i < message.getNumberOfAuthors(); i++) {
+                Varint.writeInt(out, directory.idOf(message.getAuthor(i)));
+                Varint.writeInt(out, message.getAuthorPublications(i));
+            }
+        }
+
+        @Override
+        public PublishConferenceBroadcast decode(ByteBuffer in) {
+            int authors = Varint.readInt(in);
+            Student[] students = new Student[authors];
+            int[] publications = new int[authors];
+            for (int i = 0; i < authors; i++) {
+                students[i] = directory.getStudent(Varint.readInt(in));
+                publications[i] = Varint.readInt(in);
+            }
+            return new PublishConferenceBroadcast(students, publications);
+        }
+    }
+}
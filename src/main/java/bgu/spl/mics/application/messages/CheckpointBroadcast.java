@@ -0,0 +1,49 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.Broadcast;
+
+import java.util.concurrent.Phaser;
+
+/**
+ * Sent by the clock between two ticks, to bring the services of the run to a quiescent state in which the
+ * simulation can be written to a snapshot.
+ * <p>
+ * The clock sends a few rounds of the broadcast. Every service handles the messages it received before each
+ * round, so the messages caused by the last tick, and the messages caused by those, are handled by the time the
+ * last round arrives. In the last round every service stays blocked until the snapshot was written.
+ * The clock and every running service are parties of the {@link Phaser} of the run.
+ */
+public class CheckpointBroadcast implements Broadcast {
+
+    private final int tick;
+    private final boolean last;
+    private final Phaser phaser;
+
+    /**
+     * @param tick the last tick handled before the checkpoint
+     * @param last whether this is the round in which the services wait for the snapshot
+     * @param phaser the {@link Phaser} of the run
+     */
+    public CheckpointBroadcast(int tick, boolean last, Phaser phaser) {
+        this.tick = tick;
+        this.last = last;
+        this.phaser = phaser;
+    }
+
+    public int getTick() {return tick;}
+
+    public boolean isLast() {return last;}
+
+    /**
+     * Reports that the calling service handled every message it received before this round.
+     * In the last round, also waits until the clock wrote the snapshot.
+     */
+    public void arrive() {
+        if (last) {
+            phaser.arriveAndAwaitAdvance(); // every service is quiescent
+            phaser.arriveAndAwaitAdvance(); // the snapshot was written
+        }
+        else
+            phaser.arrive();
+    }
+}
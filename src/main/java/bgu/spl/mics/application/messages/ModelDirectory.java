@@ -0,0 +1,74 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.application.objects.Model;
+import bgu.spl.mics.application.objects.Student;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Gives every {@link Student} and every {@link Model} of a run an id: its index in the order of the input file.
+ * Encoded messages refer to their {@link Model}s and {@link Student}s by these ids, so processes that read the
+ * same input file resolve them to their own objects.
+ */
+public class ModelDirectory {
+
+    private List<Student> students = new ArrayList<Student>();
+    private List<Model> models = new ArrayList<Model>();
+    private IdentityHashMap<Student, Integer> studentIds = new IdentityHashMap<Student, Integer>();
+    private IdentityHashMap<Model, Integer> modelIds = new IdentityHashMap<Model, Integer>();
+
+    /**
+     * @param students the {@link Student}s of the run, in the order of the input file
+     */
+    public ModelDirectory(Collection<Student> students) {
+        for (Student student : students) {
+            studentIds.put(student, this.students.size());
+            this.students.add(student);
+            for (Model model : student.getModels()) {
+                modelIds.put(model, models.size());
+                models.add(model);
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code model} is not a {@link Model} of the run
+     */
+    public int idOf(Model model) {
+        Integer id = modelIds.get(model);
+        if (id == null)
+            throw new IllegalArgumentException("The model is not part of the run");
+        return id;
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code student} is not a {@link Student} of the run
+     */
+    public int idOf(Student student) {
+        Integer id = studentIds.get(student);
+        if (id == null)
+            throw new IllegalArgumentException("The student is not part of the run");
+        return id;
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no {@link Model} with the given id
+     */
+    public Model getModel(int id) {
+        if (id < 0 || id >= models.size())
+            throw new IllegalArgumentException("Unknown model id " + id);
+        return models.get(id);
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no {@link Student} with the given id
+     */
+    public Student getStudent(int id) {
+        if (id < 0 || id >= students.size())
+            throw new IllegalArgumentException("Unknown student id " + id);
+        return students.get(id);
+    }
+}
@@ -0,0 +1,101 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.Callback;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.application.objects.Model;
+import bgu.spl.mics.application.objects.ModelProgress;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An {@link Event} about a single {@link Model}, resolved with that {@link Model} once it was handled.
+ * <p>
+ * The sender may chain continuations on the event with {@link #then(Callback)}. The handling service calls
+ * {@link #completed(Model)} right after completing the event on the message-bus, so the continuations run
+ * as soon as the result is known, on the thread that produced it.
+ * <p>
+ * An event decoded from another process, or completed by another process, carries the progress of the
+ * {@link Model} in that process. Decoding never changes the {@link Model}; the service owning the {@link Model}
+ * applies the progress with {@link #applyProgress()} before it acts on the {@link Model}.
+ */
+public abstract class ModelEvent implements Event<Model> {
+
+    private Model model;
+    private ConcurrentLinkedQueue<Callback<Model>> continuations = new ConcurrentLinkedQueue<Callback<Model>>();
+    private AtomicBoolean completed = new AtomicBoolean(false);
+    private volatile Model result = null;
+    private volatile ModelProgress progress = null;
+
+    public ModelEvent(Model model) {
+        this.model = model;
+    }
+
+    public Model getModel() {return model;}
+
+    /**
+     * Registers a continuation to be called exactly once, with the result of the event.
+     * If the event was already completed, {@code continuation} is called immediately.
+     * @return this event, so it can be sent right away
+     */
+    public ModelEvent then(Callback<Model> continuation) {
+        continuations.add(continuation);
+        if (completed.get())
+            runContinuations();
+        return this;
+    }
+
+    /**
+     * Runs the continuations of the event with its result.
+     * Only the first call has an effect.
+     * @param result the {@link Model} the event was completed with
+     */
+    public void completed(Model result) {
+        this.result = result;
+        if (completed.compareAndSet(false, true))
+            runContinuations();
+    }
+
+    /**
+     * Completes an event which a service of another process completed, attaching the progress of its
+     * {@link Model} in that process
+     * @param result the {@link Model} the event was completed with, or null if the other process could not handle it
+     * @param progress the progress of the {@link Model} in the other process, or null
+     */
+    public void completedRemotely(Model result, ModelProgress progress) {
+        this.progress = progress;
+        completed(result);
+    }
+
+    public boolean isCompleted() {return completed.get();}
+
+    /**
+     * @return the {@link Model} the event was completed with, null if it was not completed yet or could not be handled
+     */
+    public Model getResult() {return result;}
+
+    /**
+     * Attaches the progress of the {@link Model} in the process that sent the event
+     */
+    public void setProgress(ModelProgress progress) {this.progress = progress;}
+
+    /**
+     * Brings the {@link Model} of this process up to the progress attached to the event, if any, only once.
+     * Must be called on the thread of the service owning the {@link Model} in this process.
+     */
+    public void applyProgress() {
+        ModelProgress attached = progress;
+        if (attached != null) {
+            progress = null;
+            model.applyProgress(attached);
+        }
+    }
+
+    private void runContinuations() {
+        Callback<Model> continuation = continuations.poll();
+        while (continuation != null) {
+            continuation.call(result);
+            continuation = continuations.poll();
+        }
+    }
+}
@@ -1,17 +1,14 @@
 package bgu.spl.mics.application.messages;
 
-import bgu.spl.mics.Event;
 import bgu.spl.mics.application.objects.Model;
 
-public class ProcessModelEvent implements Event<Model> {
-
-    private Model model;
+/**
+ * Asks a {@link bgu.spl.mics.application.services.GPUService} to have the {@link bgu.spl.mics.application.objects.Data}
+ * of a {@link Model} processed by the CPUs, resolved with the {@link Model} once all of its batches are processed
+ */
+public class ProcessModelEvent extends ModelEvent {
 
     public ProcessModelEvent(Model model) {
-        this.model = model;
+        super(model);
     }
-
-    public Model getModel() {return model;}
-
-
 }
@@ -2,16 +2,114 @@ package bgu.spl.mics.application.messages;
 
 import bgu.spl.mics.Broadcast;
 import bgu.spl.mics.application.objects.Model;
+import bgu.spl.mics.application.objects.Student;
 
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Sent by a conference once its date arrives.
+ * The models of the conference are grouped by {@link Student} once, when the broadcast is created, so every
+ * student reads its own {@link Digest} in constant time instead of walking the whole list of publications.
+ * The broadcast is immutable, so it is safely shared by all the receiving threads.
+ */
 public class PublishConferenceBroadcast implements Broadcast {
 
-    private LinkedList<Model> models;
+    private final Map<Student, Integer> publications;
+    private final int totalPublications;
+    // The same grouping as parallel arrays, so it can be walked without allocating
+    private final Student[] authors;
+    private final int[] authorPublications;
 
-    public PublishConferenceBroadcast(LinkedList<Model> models) {
-        this.models = models;
+    /**
+     * @param models the models published by the conference
+     */
+    public PublishConferenceBroadcast(List<Model> models) {
+        HashMap<Student, Integer> grouped = new HashMap<Student, Integer>();
+        for (Model model : models) {
+            grouped.merge(model.getStudent(), 1, Integer::sum);
+        }
+        this.publications = Collections.unmodifiableMap(grouped);
+        this.totalPublications = models.size();
+        this.authors = new Student[grouped.size()];
+        this.authorPublications = new int[grouped.size()];
+        int i = 0;
+        for (Map.Entry<Student, Integer> entry : grouped.entrySet()) {
+            authors[i] = entry.getKey();
+            authorPublications[i] = entry.getValue();
+            i++;
+        }
     }
 
-    public LinkedList<Model> getModels() {return models;}
+    /**
+     * Recreates a broadcast from its grouping, e.g. when it is decoded
+     * @pre authors.length == authorPublications.length && every author appears once
+     * @param authors the {@link Student}s who published in the conference
+     * @param authorPublications the number of publications of each of the {@code authors}
+     */
+    public PublishConferenceBroadcast(Student[] authors, int[] authorPublications) {
+        HashMap<Student, Integer> grouped = new HashMap<Student, Integer>();
+        int total = 0;
+        for (int i = 0; i < authors.length; i++) {
+            grouped.put(authors[i], authorPublications[i]);
+            total += authorPublications[i];
+        }
+        this.publications = Collections.unmodifiableMap(grouped);
+        this.totalPublications = total;
+        this.authors = authors.clone();
+        this.authorPublications = authorPublications.clone();
+    }
+
+    public int getTotalPublications() {return totalPublications;}
+
+    /**
+     * @return the number of {@link Student}s who published in the conference
+     */
+    public int getNumberOfAuthors() {return authors.length;}
+
+    /**
+     * @pre 0 <= i < getNumberOfAuthors()
+     */
+    public Student getAuthor(int i) {return authors[i];}
+
+    /**
+     * @pre 0 <= i < getNumberOfAuthors()
+     * @return the number of publications of {@link #getAuthor(int)}
+     */
+    public int getAuthorPublications(int i) {return authorPublications[i];}
+
+    /**
+     * @param student a {@link Student} receiving the broadcast
+     * @return what the conference means to {@code student}: its own publications and the papers it read
+     */
+    public Digest getDigest(Student student) {
+        int own = publications.getOrDefault(student, 0);
+        return new Digest(own, totalPublications - own);
+    }
+
+    /**
+     * The publications of a conference from the point of view of a single {@link Student}
+     */
+    public static final class Digest {
+
+        private final int publications;
+        private final int papersRead;
+
+        public Digest(int publications, int papersRead) {
+            this.publications = publications;
+            this.papersRead = papersRead;
+        }
+
+        /**
+         * @return the number of models of the {@link Student} published by the conference
+         */
+        public int getPublications() {return publications;}
+
+        /**
+         * @return the number of models of other {@link Student}s published by the conference
+         */
+        public int getPapersRead() {return papersRead;}
+    }
 }
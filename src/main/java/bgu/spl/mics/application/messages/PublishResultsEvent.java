@@ -1,15 +1,14 @@
 package bgu.spl.mics.application.messages;
 
-import bgu.spl.mics.Event;
 import bgu.spl.mics.application.objects.Model;
 
-public class PublishResultsEvent implements Event<Model> {
+/**
+ * Asks a {@link bgu.spl.mics.application.services.ConferenceService} to publish the results of a
+ * {@link Model}, resolved with the {@link Model} once the conference accepted it
+ */
+public class PublishResultsEvent extends ModelEvent {
 
-     private Model model;
-
-     public PublishResultsEvent(Model model) {
-          this.model = model;
-     }
-
-     public Model getModel() {return model;}
+    public PublishResultsEvent(Model model) {
+        super(model);
+    }
 }
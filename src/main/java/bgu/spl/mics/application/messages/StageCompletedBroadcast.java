@@ -0,0 +1,22 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.DirectedBroadcast;
+import bgu.spl.mics.MicroService;
+
+/**
+ * Wakes up the service of a single {@link bgu.spl.mics.application.objects.Student}, so it advances the
+ * {@link bgu.spl.mics.application.objects.Model}s whose events were completed on other threads.
+ * Only {@link #getRecipient()} receives it, the other student services are not woken up. It never leaves the
+ * process that sent it.
+ */
+public class StageCompletedBroadcast implements DirectedBroadcast {
+
+    private MicroService recipient;
+
+    public StageCompletedBroadcast(MicroService recipient) {
+        this.recipient = recipient;
+    }
+
+    @Override
+    public MicroService getRecipient() {return recipient;}
+}
@@ -1,15 +1,14 @@
 package bgu.spl.mics.application.messages;
 
-import bgu.spl.mics.Event;
 import bgu.spl.mics.application.objects.Model;
 
-public class TestModelEvent implements Event<Model> {
-
-    private Model model;
+/**
+ * Asks a {@link bgu.spl.mics.application.services.GPUService} to test a trained {@link Model},
+ * resolved with the {@link Model} once its results are set
+ */
+public class TestModelEvent extends ModelEvent {
 
     public TestModelEvent(Model model) {
-        this.model = model;
+        super(model);
     }
-
-    public Model getModel(){ return model; }
 }
@@ -1,17 +1,14 @@
 package bgu.spl.mics.application.messages;
 
-import bgu.spl.mics.Event;
 import bgu.spl.mics.application.objects.Model;
 
-//import javax.jws.WebParam;
-
-public class TrainModelEvent implements Event<Model> {
-
-    private Model model;
+/**
+ * Asks a {@link bgu.spl.mics.application.services.GPUService} to train a {@link Model},
+ * resolved with the {@link Model} once it is trained
+ */
+public class TrainModelEvent extends ModelEvent {
 
     public TrainModelEvent(Model model) {
-        this.model = model;
+        super(model);
     }
-
-    public Model getModel() { return model;}
 }
@@ -0,0 +1,165 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A FIFO queue of packed {@link DataBatch} handles (see {@link DataBatch#handle(int, int)}),
+ * each paired with the time in which it will be ready.
+ * The queue is backed by primitive arrays used as a growing ring buffer, so queueing a batch does not allocate objects.
+ * <p>
+ * This class is not thread-safe, its owner is responsible for synchronizing the access to it.
+ * @inv 0 <= size() <= capacity
+ */
+public class BatchQueue {
+
+    private long[] handles;
+    private int[] readyTimes;
+    private int head = 0;
+    private int size = 0;
+
+    public BatchQueue() {
+        this(16);
+    }
+
+    public BatchQueue(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        handles = new long[capacity];
+        readyTimes = new int[capacity];
+    }
+
+    public int size() {return size;}
+
+    public boolean isEmpty() {return size == 0;}
+
+    /**
+     * Adds a batch handle to the end of the queue, growing the underlying arrays if needed
+     * @post size() == {@pre size()} + 1
+     * @param handle the packed handle of the batch
+     * @param readyTime the time in which the batch will be ready
+     */
+    public void addLast(long handle, int readyTime) {
+        if (size == handles.length)
+            grow();
+        int tail = (head + size) % handles.length;
+        handles[tail] = handle;
+        readyTimes[tail] = readyTime;
+        size++;
+    }
+
+    /**
+     * @pre !isEmpty()
+     * @return the handle of the first batch in the queue
+     */
+    public long peekHandle() {
+        checkNotEmpty();
+        return handles[head];
+    }
+
+    /**
+     * @pre !isEmpty()
+     * @return the ready time of the first batch in the queue
+     */
+    public int peekReadyTime() {
+        checkNotEmpty();
+        return readyTimes[head];
+    }
+
+    /**
+     * @pre !isEmpty()
+     * @return the ready time of the last batch in the queue
+     */
+    public int getLastReadyTime() {
+        checkNotEmpty();
+        return readyTimes[(head + size - 1) % handles.length];
+    }
+
+    /**
+     * @pre 0 <= i < size()
+     * @return the handle of the {@code i}th batch from the start of the queue
+     */
+    public long getHandle(int i) {
+        return handles[(head + i) % handles.length];
+    }
+
+    /**
+     * @pre 0 <= i < size()
+     * @return the ready time of the {@code i}th batch from the start of the queue
+     */
+    public int getReadyTime(int i) {
+        return readyTimes[(head + i) % readyTimes.length];
+    }
+
+    /**
+     * Removes the first batch in the queue
+     * @pre !isEmpty()
+     * @post size() == {@pre size()} - 1
+     * @return the handle of the removed batch
+     */
+    public long removeFirst() {
+        checkNotEmpty();
+        long handle = handles[head];
+        head = (head + 1) % handles.length;
+        size--;
+        return handle;
+    }
+
+    /**
+     * @param handle the handle of the batch we suspect is in the queue
+     * @return true iff {@code handle} is in the queue
+     */
+    public boolean contains(long handle) {
+        return indexOf(handle) != -1;
+    }
+
+    /**
+     * Removes the first occurrence of {@code handle} from the queue, keeping the order of the other batches
+     * @param handle the handle of the batch to remove
+     * @return true iff {@code handle} was in the queue
+     */
+    public boolean remove(long handle) {
+        int offset = indexOf(handle);
+        if (offset == -1)
+            return false;
+        for (int i = offset; i < size - 1; i++) {
+            int to = (head + i) % handles.length;
+            int from = (head + i + 1) % handles.length;
+            handles[to] = handles[from];
+            readyTimes[to] = readyTimes[from];
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes all the batches from the queue, keeping the allocated arrays
+     */
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private int indexOf(long handle) {
+        for (int i = 0; i < size; i++) {
+            if (handles[(head + i) % handles.length] == handle)
+                return i;
+        }
+        return -1;
+    }
+
+    private void grow() {
+        long[] newHandles = new long[handles.length * 2];
+        int[] newReadyTimes = new int[readyTimes.length * 2];
+        for (int i = 0; i < size; i++) {
+            newHandles[i] = handles[(head + i) % handles.length];
+            newReadyTimes[i] = readyTimes[(head + i) % readyTimes.length];
+        }
+        handles = newHandles;
+        readyTimes = newReadyTimes;
+        head = 0;
+    }
+
+    private void checkNotEmpty() {
+        if (isEmpty())
+            throw new NoSuchElementException("The batch queue is empty");
+    }
+}
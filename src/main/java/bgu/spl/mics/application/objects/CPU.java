@@ -1,28 +1,44 @@
 package bgu.spl.mics.application.objects;
 
-import sun.awt.image.ImageWatched;
-
-import java.util.*;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.io.IOException;
 
 /**
  * Passive object representing a single CPU.
  * Add all the fields described in the assignment as private fields.
  * Add fields and methods to this class as you see fit (including public methods and constructors).
- * @inv getNumberOfCores() > 0 && getNumberOfBatches() >= 0 && getCluster() != null
+ * <p>
+ * The cores of the CPU are split into parallel lanes, each lane processes its own chain of
+ * {@link DataBatch}s independently of the other lanes.
+ * @inv getNumberOfCores() > 0 && getNumberOfLanes() > 0 && getNumberOfBatches() >= 0 && getCluster() != null
  */
 
 public class CPU {
 
     private int cores;
-    private ConcurrentLinkedDeque<TimedBatch> data;
+    private BatchQueue[] lanes;
     private Cluster cluster;
     private int timer = 0;
+    private DeviceStatistics stats = new DeviceStatistics();
 
     public CPU(int cores, Cluster cluster) {
+        this(cores, 1, cluster);
+    }
+
+    /**
+     * Constructs a CPU whose cores are divided evenly between {@code lanes} parallel lanes
+     * @pre cores > 0 && lanes > 0
+     * @param cores the number of cores in the CPU
+     * @param lanes the number of parallel lanes, capped by {@code cores}
+     * @param cluster the {@link Cluster} this CPU belongs to
+     */
+    public CPU(int cores, int lanes, Cluster cluster) {
         this.cores = cores;
-        data = new ConcurrentLinkedDeque<>();
         this.cluster = cluster;
+        int numOfLanes = Math.max(1, Math.min(lanes, cores));
+        this.lanes = new BatchQueue[numOfLanes];
+        for (int i = 0; i < numOfLanes; i++) {
+            this.lanes[i] = new BatchQueue();
+        }
     }
 
 
@@ -33,6 +49,20 @@ public class CPU {
         return cores;
     }
 
+    /**
+     * @return number of parallel lanes in the CPU
+     */
+    public int getNumberOfLanes() {
+        return lanes.length;
+    }
+
+    /**
+     * @return number of cores assigned to each lane of the CPU
+     */
+    public int getCoresPerLane() {
+        return cores / lanes.length;
+    }
+
     /**
      * @return this CPU's associated cluster
      */
@@ -40,11 +70,22 @@ public class CPU {
         return cluster;
     }
 
+    /**
+     * @return the busy/idle ticks and batches recorded by this CPU
+     */
+    public DeviceStatistics getStatistics() {
+        return stats;
+    }
+
     /**
      * @return number of data batches currently in the CPU
      */
-    public int getNumberOfBatches() {
-        return data.size();
+    public synchronized int getNumberOfBatches() {
+        int batches = 0;
+        for (BatchQueue lane : lanes) {
+            batches += lane.size();
+        }
+        return batches;
     }
 
 
@@ -52,13 +93,12 @@ public class CPU {
      * Confirms a given {@link DataBatch} instance is in this CPU
      * @param db the {@link DataBatch} instance we suspect is in this CPU
      * @pre db != null
-     * @return true iff db is in the {@code data} field
+     * @return true iff db is in one of the {@code lanes}
      */
     public synchronized boolean contains (DataBatch db){
-        Iterator<TimedBatch> iter = data.iterator();
-        while (iter.hasNext()) {
-            TimedBatch current = iter.next();
-            if (current.getBatch().equals(db))
+        long handle = db.getHandle();
+        for (BatchQueue lane : lanes) {
+            if (lane.contains(handle))
                 return true;
         }
         return false;
@@ -69,67 +109,146 @@ public class CPU {
      */
     public synchronized void tick () {
         timer++;
+        int queued = getNumberOfBatches();
+        stats.recordTick(queued > 0, queued);
         checkProcessed();
     }
 
     /**
-     * Calculates how much ticks are needed to process a given {@link DataBatch} instance
+     * Calculates how much ticks are needed for a single lane to process a given {@link DataBatch} instance
      * @param db the {@link DataBatch} to be processed
      * @return the number of ticks needed to process {@code db}
      */
     public int getProcessingTime (DataBatch db){
+        return getProcessingTime(db.getType());
+    }
+
+    private int getProcessingTime (Data.Type type){
         int time = -1;
-        Data.Type type = db.getType();
+        int laneCores = getCoresPerLane();
         switch (type) {
             case Images:
-                time = (32 / getNumberOfCores()) * 4;
+                time = (32 / laneCores) * 4;
+                break;
             case Text:
-                time = (32 / getNumberOfCores()) * 2;
+                time = (32 / laneCores) * 2;
+                break;
             case Tabular:
-                time = (32 / getNumberOfCores()) * 1;
+                time = (32 / laneCores) * 1;
+                break;
         }
-        return time;
+        return Math.max(1, time);
     }
 
     /**
-     * Adds a new {@link DataBatch} to the CPU's data field
+     * Adds a new {@link DataBatch} to the lane of the CPU which will become available first
      * @pre db != null
      * @post getNumberOfBatches() == {@pre getNumberOfBatches()} + 1 && contains(db)
      * @param db the {@link DataBatch} sent to the CPU
      */
     public synchronized void addBatch (DataBatch db){
         if (db != null) {
-            int lastBatchReadyTime = timer;
-            if (!data.isEmpty())
-                lastBatchReadyTime = data.getLast().getReadyTime();
-            int readyTime = lastBatchReadyTime + getProcessingTime(db);
-            TimedBatch newLastBatch = new TimedBatch(db, readyTime);
-            data.addLast(newLastBatch);
+            cluster.registerData(db.getData());
+            addBatch(db.getHandle());
+        }
+    }
+
+    /**
+     * Adds a new batch, given by its packed handle, to the lane of the CPU which will become available first
+     * @pre getCluster().getData(DataBatch.dataIdOf(handle)) != null
+     * @post getNumberOfBatches() == {@pre getNumberOfBatches()} + 1
+     * @param handle the handle of the batch sent to the CPU
+     */
+    public synchronized void addBatch (long handle){
+        Data data = cluster.getData(DataBatch.dataIdOf(handle));
+        if (data != null) {
+            BatchQueue lane = lanes[0];
+            int lastBatchReadyTime = laneReadyTime(lane);
+            for (int i = 1; i < lanes.length; i++) {
+                int readyTime = laneReadyTime(lanes[i]);
+                if (readyTime < lastBatchReadyTime) {
+                    lane = lanes[i];
+                    lastBatchReadyTime = readyTime;
+                }
+            }
+            int readyTime = lastBatchReadyTime + getProcessingTime(data.getType());
+            lane.addLast(handle, readyTime);
         }
     }
 
     /**
-     * Checks if the current processing {@link DataBatch} is ready
+     * @param lane one of the CPU's lanes
+     * @return the time in which {@code lane} finishes processing all of its {@link DataBatch}s
+     */
+    private int laneReadyTime(BatchQueue lane) {
+        if (lane.isEmpty())
+            return timer;
+        return Math.max(timer, lane.getLastReadyTime());
+    }
+
+    /**
+     * Retires every {@link DataBatch} that finished processing, in all of the CPU's lanes
      * @pre !data.isEmpty() && isReady(data.peekFirst())
      * @post db.getProcessed() == {@pre db.getProcessed()} + {@code samplesPerTick}
      */
     public synchronized void checkProcessed() {
-        if (!data.isEmpty()) {
-            while (isReady(data.peek())) {
-                TimedBatch tb = data.remove();
-                tb.getBatch().process();
-                cluster.updateStats(1, getProcessingTime(tb.getBatch()), 0);
+        for (BatchQueue lane : lanes) {
+            while (isReady(lane)) {
+                long handle = lane.removeFirst();
+                Data data = cluster.getData(DataBatch.dataIdOf(handle));
+                if (data == null)
+                    continue; // a batch sent again after its Data was fully processed
+                data.processBatch(DataBatch.indexOf(handle));
+                stats.recordBatches(1);
+                cluster.updateStats(1, getProcessingTime(data.getType()), 0);
+            }
+        }
+    }
+
+    /**
+     * Writes the timer, the statistics and the queued batches of every lane of the CPU
+     * @param out the destination
+     */
+    public synchronized void saveState(StateOutput out) throws IOException {
+        out.writeInt(timer);
+        stats.saveState(out);
+        out.writeInt(lanes.length);
+        for (BatchQueue lane : lanes) {
+            out.writeInt(lane.size());
+            for (int i = 0; i < lane.size(); i++) {
+                out.writeHandle(lane.getHandle(i));
+                out.writeInt(lane.getReadyTime(i));
             }
         }
     }
 
     /**
-     * @param tb the {@link TimedBatch} instance we want to check
-     * @return true iff {@code tb} has finished processing
+     * Replaces the state of the CPU with the one written by {@link #saveState(StateOutput)}
+     * @pre the CPU has the same number of lanes as the saved one
+     * @param in the source
      */
-    private synchronized boolean isReady(TimedBatch tb) {
-        return tb != null && tb.getReadyTime() <= timer;
+    public synchronized void restoreState(StateInput in) throws IOException {
+        timer = in.readInt();
+        stats.restoreState(in);
+        if (in.readInt() != lanes.length)
+            throw new IOException("The snapshot has a different number of lanes for a CPU");
+        for (BatchQueue lane : lanes) {
+            lane.clear();
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                long handle = in.readHandle();
+                cluster.registerData(in.dataOf(handle));
+                lane.addLast(handle, in.readInt());
+            }
+        }
     }
 
-}
+    /**
+     * @param lane the lane whose first batch we want to check
+     * @return true iff the first batch of {@code lane} has finished processing
+     */
+    private synchronized boolean isReady(BatchQueue lane) {
+        return !lane.isEmpty() && lane.peekReadyTime() <= timer;
+    }
 
+}
@@ -1,9 +1,11 @@
 package bgu.spl.mics.application.objects;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Passive object representing the cluster.
@@ -16,8 +18,13 @@ public class Cluster {
 
 	private ConcurrentLinkedDeque<CPU> cpus;
 	private ConcurrentLinkedDeque<GPU> gpus;
-	private ConcurrentHashMap<Data, ConcurrentLinkedDeque<DataBatch>> disk;
+	private Disk disk;
+	private final Object diskLock = new Object(); // guards the disk, which setDisk may replace
+	private final Object cpusLock = new Object(); // guards the choice of a CPU, setCpus may replace the cpus
+	private final Object gpusLock = new Object(); // guards the placement of models, setGpus may replace the gpus
+	private ConcurrentHashMap<Integer, Data> datasets;
 	private Statistics stats;
+	private int dataParallelism = 1;
 
 	private static class ClusterHolder { // Implementing the Cluster as a Thread-safe Singleton
 		private static Cluster instance = new Cluster();
@@ -26,16 +33,62 @@ public class Cluster {
 	public Cluster(){
 		cpus = new ConcurrentLinkedDeque<CPU>();
 		gpus = new ConcurrentLinkedDeque<GPU>();
-		disk = new ConcurrentHashMap<Data,ConcurrentLinkedDeque<DataBatch>>();
+		disk = new HeapDisk();
+		datasets = new ConcurrentHashMap<Integer,Data>();
 		stats = new Statistics();
 	}
 
 	public String getStats() {
-		synchronized (stats) {
-			return stats.toString();
+		return stats.toString();
+	}
+
+	/**
+	 * Writes the {@link Cluster}'s statistics in the format of the output file
+	 * @param out the destination
+	 */
+	public void writeStats(Appendable out) throws IOException {
+		stats.writeTo(out);
+	}
+
+	/**
+	 * @return an immutable copy of the {@link Cluster}'s statistics, including the per-device breakdown.
+	 * The copy is exact once the {@link CPU}s and {@link GPU}s stopped ticking.
+	 */
+	public StatisticsSnapshot getStatisticsSnapshot() {
+		List<DeviceStatistics.Snapshot> cpuStats = new ArrayList<DeviceStatistics.Snapshot>();
+		int cpuCounter = 1;
+		for (CPU cpu : cpus) {
+			cpuStats.add(cpu.getStatistics().snapshot("CPU " + cpuCounter));
+			cpuCounter++;
+		}
+		List<DeviceStatistics.Snapshot> gpuStats = new ArrayList<DeviceStatistics.Snapshot>();
+		int gpuCounter = 1;
+		for (GPU gpu : gpus) {
+			gpuStats.add(gpu.getStatistics().snapshot("GPU " + gpuCounter));
+			gpuCounter++;
 		}
+		return new StatisticsSnapshot(stats.getBatchesPrecessed(), stats.getCpuTimeUsed(), stats.getGpuTimeUsed(),
+				new ArrayList<Model>(stats.getModelsTrained()), cpuStats, gpuStats);
 	}
 	
+	/**
+	 * @return the per-tick history of every {@link CPU} and {@link GPU} of the {@link Cluster}, by device name
+	 */
+	public Map<String, DeviceTimeline> getTimelines() {
+		Map<String, DeviceTimeline> timelines = new LinkedHashMap<String, DeviceTimeline>();
+		int cpuCounter = 1;
+		for (CPU cpu : cpus) {
+			timelines.put("CPU " + cpuCounter, cpu.getStatistics().getTimeline());
+			cpuCounter++;
+		}
+		int gpuCounter = 1;
+		for (GPU gpu : gpus) {
+			timelines.put("GPU " + gpuCounter, gpu.getStatistics().getTimeline());
+			gpuCounter++;
+		}
+		return timelines;
+	}
+
 	/**
      * Retrieves the single instance of this class.
      */
@@ -44,36 +97,100 @@ public class Cluster {
 	}
 
 	public boolean diskContains(DataBatch db) {
-		synchronized (disk) {
-			return disk.containsKey(db.getData()) && disk.get(db.getData()).contains(db);
+		synchronized (diskLock) {
+			return disk.contains(db.getHandle());
+		}
+	}
+
+	/**
+	 * Replaces the staging {@link Disk} of the {@link Cluster}.
+	 * Should only be called before any {@link Data} is added to the disk.
+	 * @param disk the new {@link Disk}
+	 */
+	public void setDisk(Disk disk) {
+		if (disk != null) {
+			synchronized (diskLock) {
+				this.disk = disk;
+			}
 		}
 	}
 
+	public Disk getDisk() {
+		synchronized (diskLock) {
+			return disk;
+		}
+	}
+
+	/**
+	 * Releases the staging {@link Disk} of the {@link Cluster} once the run is over, and replaces it with an
+	 * empty disk on the heap
+	 */
+	public void closeDisk() throws IOException {
+		synchronized (diskLock) {
+			Disk closed = disk;
+			disk = new HeapDisk();
+			closed.close();
+		}
+	}
+
+	/**
+	 * Sets the maximal number of {@link GPU}s a single {@link Model} is trained on in parallel.
+	 * A {@link Model} trained on several {@link GPU}s has its {@link DataBatch}s split into a shard per {@link GPU}.
+	 * @param dataParallelism the maximal number of {@link GPU}s per {@link Model}, 1 disables data-parallel training
+	 */
+	public void setDataParallelism(int dataParallelism) {
+		this.dataParallelism = Math.max(1, dataParallelism);
+	}
+
+	/**
+	 * @param id the id of a {@link Data} which was added to the {@link Cluster}
+	 * @return the {@link Data} with the given id, or null if there is no such {@link Data}
+	 */
+	public Data getData(int id) {
+		return datasets.get(id);
+	}
+
+	/**
+	 * Registers a {@link Data} so the handles of its {@link DataBatch}s can be resolved by {@link #getData(int)}.
+	 * The {@link Data} is forgotten once its last batch is processed, from then on its handles resolve to null.
+	 * @param data the {@link Data} to register
+	 */
+	public void registerData(Data data) {
+		if (datasets.putIfAbsent(data.getId(), data) == null)
+			data.onProcessed(processed -> datasets.remove(processed.getId(), processed));
+	}
+
 	public void setCpus(ConcurrentLinkedDeque<CPU> cpus) {
-		this.cpus = cpus;
+		synchronized (cpusLock) {
+			this.cpus = cpus;
+		}
 	}
 
 	public void setGpus(ConcurrentLinkedDeque<GPU> gpus) {
-		this.gpus = gpus;
+		synchronized (gpusLock) {
+			this.gpus = gpus;
+		}
 	}
 
 	public void process(Data data) {
-		synchronized (disk){
-			if (disk.containsKey(data)) {
-				ConcurrentLinkedDeque<DataBatch> batches = disk.get(data);
-				for (DataBatch db : batches) {
+		synchronized (diskLock) {
+			if (disk.hasData(data)) {
+				data.setDispatched();
+				long handle = disk.poll(data);
+				while (handle != Disk.NO_BATCH) {
 					CPU availableCPU = findAvailableCPU();
 					if (availableCPU != null) {
-						availableCPU.addBatch(db);
+						availableCPU.addBatch(handle);
 					}
+					handle = disk.poll(data);
 				}
-				disk.remove(data);
+				disk.clear(data);
 			}
 		}
 	}
 
 	private CPU findAvailableCPU() {
-		synchronized (cpus) {
+		synchronized (cpusLock) {
 			CPU retCPU = cpus.getFirst();
 			int minNumOfBatches = retCPU.getNumberOfBatches();
 			Iterator<CPU> iter = cpus.iterator();
@@ -86,15 +203,139 @@ public class Cluster {
 		}
 	}
 
+	/**
+	 * Places a {@link Model} on the {@link GPU} which would finish training it first, given the training work
+	 * every {@link GPU} has already committed to and the speed of its {@link GPU.Type}.
+	 * Ties are broken in favour of the {@link GPU} with the larger VRAM.
+	 * In data-parallel mode the {@link Model} is split between several {@link GPU}s instead, see {@link #setDataParallelism(int)}.
+	 * @param model the {@link Model} to be trained
+	 * @return the {@link GPU} the (largest shard of the) {@link Model} was queued on, or null if the {@link Cluster}
+	 *         has no {@link GPU}s
+	 */
+	public GPU submitTraining(Model model) {
+		synchronized (gpusLock) {
+			int width = Math.min(dataParallelism, Math.min(gpus.size(), model.getData().getNumberOfBatches()));
+			if (width > 1)
+				return submitShards(model, width);
+			GPU best = null;
+			long bestFinish = Long.MAX_VALUE;
+			for (GPU gpu : gpus) {
+				long finish = gpu.getCommittedTicks() + gpu.timeToTrain(model);
+				if (best == null || finish < bestFinish ||
+						(finish == bestFinish && gpu.getVramCapacity() > best.getVramCapacity())) {
+					best = gpu;
+					bestFinish = finish;
+				}
+			}
+			if (best != null)
+				best.startTraining(model);
+			return best;
+		}
+	}
+
+	/**
+	 * Splits the {@link DataBatch}s of a {@link Model} between up to {@code width} {@link GPU}s, so that all the
+	 * shards are projected to finish at the same time. Faster and less committed {@link GPU}s get larger shards,
+	 * and a {@link GPU} which is too busy to help gets no shard at all.
+	 * @pre width > 1 && width <= gpus.size()
+	 * @return the {@link GPU} the largest shard was queued on
+	 */
+	private GPU submitShards(Model model, int width) {
+		// The GPUs keep ticking on their own threads, so the work every GPU committed to is read once, and the
+		// GPUs are sorted and balanced on that snapshot
+		List<GPU> candidates = new ArrayList<GPU>(gpus);
+		long[] candidateTicks = new long[candidates.size()];
+		Integer[] order = new Integer[candidates.size()];
+		for (int i = 0; i < candidates.size(); i++) {
+			candidateTicks[i] = candidates.get(i).getCommittedTicks();
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingLong(i -> candidateTicks[i]));
+		List<GPU> chosen = new ArrayList<GPU>();
+		long[] committedTicks = new long[width];
+		for (int i = 0; i < width; i++) {
+			chosen.add(candidates.get(order[i]));
+			committedTicks[i] = candidateTicks[order[i]];
+		}
+		int batches = model.getData().getNumberOfBatches();
+		double[] shares = new double[width];
+		boolean balanced = false;
+		while (!balanced) {
+			// All shards finish at time F: committed_i + timeToTrain_i * share_i == F, and the shares sum to batches
+			double rates = 0;
+			double committed = 0;
+			for (int i = 0; i < chosen.size(); i++) {
+				rates += 1.0 / chosen.get(i).timeToTrain();
+				committed += (double) committedTicks[i] / chosen.get(i).timeToTrain();
+			}
+			double finish = (batches + committed) / rates;
+			balanced = true;
+			for (int i = 0; i < chosen.size(); i++) {
+				GPU gpu = chosen.get(i);
+				shares[i] = (finish - committedTicks[i]) / gpu.timeToTrain();
+				if (shares[i] < 0)
+					balanced = false;
+			}
+			if (!balanced)
+				chosen.remove(chosen.size() - 1);
+		}
+		int[] sizes = new int[chosen.size()];
+		int assigned = 0;
+		int largest = 0;
+		for (int i = 0; i < chosen.size(); i++) {
+			sizes[i] = (int) Math.floor(shares[i]);
+			assigned += sizes[i];
+		}
+		for (int i = 0; assigned < batches; i = (i + 1) % sizes.length) {
+			sizes[i]++;
+			assigned++;
+		}
+		int shards = 0;
+		for (int i = 0; i < sizes.length; i++) {
+			if (sizes[i] > 0)
+				shards++;
+			if (sizes[i] > sizes[largest])
+				largest = i;
+		}
+		model.startShards(shards);
+		int from = 0;
+		for (int i = 0; i < sizes.length; i++) {
+			if (sizes[i] > 0) {
+				chosen.get(i).startTraining(new TrainingShard(model, from, from + sizes[i]));
+				from += sizes[i];
+			}
+		}
+		return chosen.get(largest);
+	}
+
+	/**
+	 * Adds all the {@link DataBatch}s of a {@link Data} to the {@link Cluster}'s {@code disk}
+	 * @param data the {@link Data} whose batches should be added to the {@code disk}
+	 */
+	public void addToDisk(Data data) {
+		synchronized (diskLock) {
+			registerData(data);
+			if (!disk.hasData(data)) {
+				for (int i = 0; i < data.getNumberOfBatches(); i++) {
+					disk.append(data, DataBatch.handle(data.getId(), i));
+				}
+			}
+		}
+	}
+
 	/**
 	 * Adds a new {@link LinkedList} of {@link DataBatch}s to the {@link Cluster}'s {@code disk}
 	 * @param batches the {@link DataBatch}s to be added to the {@code disk}
 	 */
 	public void addToDisk(ConcurrentLinkedDeque<DataBatch> batches) {
-		synchronized (disk) {
+		synchronized (diskLock) {
 			Data data = batches.peekFirst().getData();
-			if (!disk.containsKey(data))
-				disk.put(data, batches);
+			registerData(data);
+			if (!disk.hasData(data)) {
+				for (DataBatch db : batches) {
+					disk.append(data, db.getHandle());
+				}
+			}
 		}
 	}
 
@@ -103,20 +344,57 @@ public class Cluster {
 	 * @param db the {@link DataBatch} to be removed
 	 */
 	public void removeFromDisk(DataBatch db) {
-		synchronized (disk) {
-			if (db != null && diskContains(db)) {
-				disk.get(db.getData()).remove(db);
+		synchronized (diskLock) {
+			if (db != null) {
+				disk.remove(db.getHandle());
 			}
 		}
 	}
 
 
+	/**
+	 * Writes the statistics of the {@link Cluster}.
+	 * The {@code disk} is not written: a {@link Data} is added to it and handed to the {@link CPU}s in the same
+	 * event, so it is empty whenever no event is being handled.
+	 * @param out the destination
+	 */
+	public void saveState(StateOutput out) throws IOException {
+		out.writeLong(stats.getBatchesPrecessed());
+		out.writeLong(stats.getCpuTimeUsed());
+		out.writeLong(stats.getGpuTimeUsed());
+		List<Model> trained = new ArrayList<Model>(stats.getModelsTrained());
+		out.writeInt(trained.size());
+		for (Model model : trained)
+			out.writeModel(model);
+	}
+
+	/**
+	 * Replaces the statistics of the {@link Cluster} with the ones written by {@link #saveState(StateOutput)}
+	 * @param in the source
+	 */
+	public void restoreState(StateInput in) throws IOException {
+		stats = new Statistics();
+		stats.incBatchesProcessed(in.readLong());
+		stats.incCPUTimeUsed(in.readLong());
+		stats.incGPUTimeUsed(in.readLong());
+		int trained = in.readInt();
+		for (int i = 0; i < trained; i++)
+			stats.addModel(in.readModel());
+	}
+
 	public void updateStats(int batches, int cpuTime, int gpuTime) {
-		synchronized (stats) {
-			stats.incBatchesProcessed(batches);
-			stats.incCPUTimeUsed(cpuTime);
-			stats.incGPUTimeUsed(gpuTime);
-		}
+		stats.incBatchesProcessed(batches);
+		stats.incCPUTimeUsed(cpuTime);
+		stats.incGPUTimeUsed(gpuTime);
+	}
+
+	/**
+	 * Registers a {@link Model} which finished its training in one of the {@link Cluster}'s {@link GPU}s
+	 * @param model the trained {@link Model}
+	 */
+	public void addTrainedModel(Model model) {
+		if (model != null)
+			stats.addModel(model);
 	}
 
 
@@ -125,33 +403,73 @@ public class Cluster {
 	 */
 	private class Statistics {
 
-		private LinkedList<Model> modelsTrained;
-		int batchesPrecessed = 0;
-		int cpuTimeUsed = 0; // in milliseconds
-		int gpuTimeUsed = 0; // in milliseconds
+		private ConcurrentLinkedQueue<Model> modelsTrained;
+		private LongAdder batchesPrecessed = new LongAdder();
+		private LongAdder cpuTimeUsed = new LongAdder(); // in milliseconds
+		private LongAdder gpuTimeUsed = new LongAdder(); // in milliseconds
 
-		public Statistics() {modelsTrained = new LinkedList<Model>();}
+		public Statistics() {modelsTrained = new ConcurrentLinkedQueue<Model>();}
 
-		public int getBatchesPrecessed() {return batchesPrecessed;}
+		public long getBatchesPrecessed() {return batchesPrecessed.sum();}
 
-		public int getCpuTimeUsed() {return cpuTimeUsed;}
+		public long getCpuTimeUsed() {return cpuTimeUsed.sum();}
 
-		public int getGpuTimeUsed() {return gpuTimeUsed;}
+		public long getGpuTimeUsed() {return gpuTimeUsed.sum();}
 
-		public void addModel(Model model) {modelsTrained.addLast(model);}
+		public Collection<Model> getModelsTrained() {return modelsTrained;}
 
-		public void incBatchesProcessed(int batchesPrecessed) {this.batchesPrecessed += batchesPrecessed;}
+		public void addModel(Model model) {modelsTrained.add(model);}
 
-		public void incCPUTimeUsed(int cpuTimeUsed) {this.cpuTimeUsed += cpuTimeUsed;}
+		public void incBatchesProcessed(long batchesPrecessed) {this.batchesPrecessed.add(batchesPrecessed);}
 
-		public void incGPUTimeUsed(int gpuTimeUsed) {this.gpuTimeUsed += gpuTimeUsed;}
+		public void incCPUTimeUsed(long cpuTimeUsed) {this.cpuTimeUsed.add(cpuTimeUsed);}
+
+		public void incGPUTimeUsed(long gpuTimeUsed) {this.gpuTimeUsed.add(gpuTimeUsed);}
 		
 		public String toString() {
-			String s = "";
-			s = s + "GPU time used: " + getGpuTimeUsed() + " milliseconds.\n";
-			s = s + "CPU time used: " + getCpuTimeUsed() + " milliseconds.\n";
-			s = s + "Amount of batches processed by the CPUs: " + getBatchesPrecessed() + " batches.\n";
-			return s;
+			return ReportText.render(this::writeTo);
+		}
+
+		public void writeTo(Appendable out) throws IOException {
+			out.append("GPU time used: ").append(String.valueOf(getGpuTimeUsed())).append(" milliseconds.\n");
+			out.append("CPU time used: ").append(String.valueOf(getCpuTimeUsed())).append(" milliseconds.\n");
+			out.append("Amount of batches processed by the CPUs: ").append(String.valueOf(getBatchesPrecessed()))
+					.append(" batches.\n");
 		}
 	}
+
+	/**
+	 * An immutable view of the {@link Cluster}'s statistics at a single point in time
+	 */
+	public static class StatisticsSnapshot {
+
+		private final long batchesProcessed;
+		private final long cpuTimeUsed;
+		private final long gpuTimeUsed;
+		private final List<Model> modelsTrained;
+		private final List<DeviceStatistics.Snapshot> cpuStats;
+		private final List<DeviceStatistics.Snapshot> gpuStats;
+
+		public StatisticsSnapshot(long batchesProcessed, long cpuTimeUsed, long gpuTimeUsed, List<Model> modelsTrained,
+								  List<DeviceStatistics.Snapshot> cpuStats, List<DeviceStatistics.Snapshot> gpuStats) {
+			this.batchesProcessed = batchesProcessed;
+			this.cpuTimeUsed = cpuTimeUsed;
+			this.gpuTimeUsed = gpuTimeUsed;
+			this.modelsTrained = Collections.unmodifiableList(modelsTrained);
+			this.cpuStats = Collections.unmodifiableList(cpuStats);
+			this.gpuStats = Collections.unmodifiableList(gpuStats);
+		}
+
+		public long getBatchesProcessed() {return batchesProcessed;}
+
+		public long getCpuTimeUsed() {return cpuTimeUsed;}
+
+		public long getGpuTimeUsed() {return gpuTimeUsed;}
+
+		public List<Model> getModelsTrained() {return modelsTrained;}
+
+		public List<DeviceStatistics.Snapshot> getCpuStats() {return cpuStats;}
+
+		public List<DeviceStatistics.Snapshot> getGpuStats() {return gpuStats;}
+	}
 }
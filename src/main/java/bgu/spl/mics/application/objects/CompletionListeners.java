@@ -0,0 +1,56 @@
+package bgu.spl.mics.application.objects;
+
+import bgu.spl.mics.Callback;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the {@link Callback}s waiting for a single one-time transition of a passive object
+ * (e.g. a {@link Data} finishing its processing).
+ * Every registered {@link Callback} is called exactly once, by the thread completing the transition,
+ * or immediately by the registering thread if the transition has already happened.
+ */
+class CompletionListeners<T> {
+
+    private final T source;
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+    private final ConcurrentLinkedQueue<Callback<T>> listeners = new ConcurrentLinkedQueue<Callback<T>>();
+
+    CompletionListeners(T source) {
+        this.source = source;
+    }
+
+    boolean isCompleted() {return completed.get();}
+
+    /**
+     * Registers {@code listener} to be called once the transition happens
+     */
+    void add(Callback<T> listener) {
+        if (listener != null) {
+            listeners.add(listener);
+            if (isCompleted())
+                fire();
+        }
+    }
+
+    /**
+     * Marks the transition as completed and calls the registered listeners
+     * @return true iff this call was the one completing the transition
+     */
+    boolean complete() {
+        if (completed.compareAndSet(false, true)) {
+            fire();
+            return true;
+        }
+        return false;
+    }
+
+    private void fire() {
+        Callback<T> listener = listeners.poll();
+        while (listener != null) {
+            listener.call(source);
+            listener = listeners.poll();
+        }
+    }
+}
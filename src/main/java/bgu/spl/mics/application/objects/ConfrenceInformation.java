@@ -1,6 +1,7 @@
 package bgu.spl.mics.application.objects;
 
 //import javax.jws.WebParam;
+import java.io.IOException;
 import java.util.LinkedList;
 
 /**
@@ -29,15 +30,43 @@ public class ConfrenceInformation {
 
     public LinkedList<Model> getModels() { return models; }
 
+    /**
+     * Writes the {@link Model}s accepted to the conference so far
+     * @param out the destination
+     */
+    public void saveState(StateOutput out) throws IOException {
+        out.writeInt(models.size());
+        for (Model model : models)
+            out.writeModel(model);
+    }
+
+    /**
+     * Replaces the accepted {@link Model}s with the ones written by {@link #saveState(StateOutput)}
+     * @param in the source
+     */
+    public void restoreState(StateInput in) throws IOException {
+        models.clear();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++)
+            addModel(in.readModel());
+    }
+
     public String toString(){
-        String output = "    Name: " + name + "\n";
-        output += "    Date: " + date + "\n";
-        output += "    Publications: \n";
+        return ReportText.render(this::writeTo);
+    }
+
+    /**
+     * Writes the conference and its publications in the format of the output file
+     * @param out the destination
+     */
+    public void writeTo(Appendable out) throws IOException {
+        out.append("    Name: ").append(name).append("\n");
+        out.append("    Date: ").append(String.valueOf(date)).append("\n");
+        out.append("    Publications: \n");
         for(Model model : models){
-            output += model.toString();
-            output += "    \n";
+            model.writeTo(out);
+            out.append("    \n");
         }
-        return output;
     }
 
 }
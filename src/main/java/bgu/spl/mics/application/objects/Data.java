@@ -1,6 +1,9 @@
 package bgu.spl.mics.application.objects;
 
-import java.util.LinkedList;
+import bgu.spl.mics.Callback;
+
+import java.io.IOException;
+import java.util.BitSet;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -16,9 +19,20 @@ public class Data {
         Images, Text, Tabular
     }
 
+    /**
+     * The number of samples in a single {@link DataBatch}
+     */
+    public static final int BATCH_SIZE = 1000;
+
+    private static final AtomicInteger nextId = new AtomicInteger(0);
+
+    private final int id = nextId.getAndIncrement();
     private Type type;
-    private int processed = 0;
+    private AtomicInteger processed = new AtomicInteger(0);
     private int size;
+    private CompletionListeners<Data> processedListeners = new CompletionListeners<Data>(this);
+    private BitSet processedBatches = new BitSet();
+    private volatile boolean dispatched = false; // whether the batches were handed to the CPUs
 
 
     public Data(Type type, int size) {
@@ -35,33 +49,117 @@ public class Data {
         this.size = size;
     }
 
+    /**
+     * @return the unique id of this {@link Data}, used in the handles of its {@link DataBatch}s
+     */
+    public int getId() {return id;}
+
     public Type getType() {return type;}
 
-    public boolean isProcessed() {return processed == size;}
+    public boolean isProcessed() {return processed.get() == size;}
 
     public int getSize() {return size;}
 
+    /**
+     * @return the number of {@link DataBatch}s this {@link Data} is divided into
+     */
+    public int getNumberOfBatches() {return size / BATCH_SIZE;}
+
+    /**
+     * @param index the index of a {@link DataBatch} of this {@link Data}
+     * @return true iff the batch at {@code index} was already processed
+     */
+    public boolean isBatchProcessed(int index) {
+        synchronized (processedBatches) {
+            return processedBatches.get(index);
+        }
+    }
+
+    /**
+     * Processes the samples of the {@link DataBatch} at {@code index}, unless it was already processed
+     * @param index the index of a {@link DataBatch} of this {@link Data}
+     */
+    public void processBatch(int index) {
+        synchronized (processedBatches) {
+            if (processedBatches.get(index))
+                return;
+            processedBatches.set(index);
+        }
+        process(BATCH_SIZE);
+    }
+
     /**
      * Processes a given amount of samples in the {@link Data} instance
      * @param samples the amount of samples to process
      */
-    public synchronized void process(int samples){
-        if(!isProcessed()) {
-            processed += samples;
-            if (processed > size) {
-                processed = size;
+    public void process(int samples){
+        int current = processed.get();
+        while (current < size) {
+            int updated = Math.min(size, current + samples);
+            if (processed.compareAndSet(current, updated)) {
+                if (updated == size)
+                    processedListeners.complete();
+                return;
             }
+            current = processed.get();
         }
     }
 
+    /**
+     * @return true iff the {@link DataBatch}s of this {@link Data} were already handed to the {@link CPU}s
+     */
+    public boolean isDispatched() {return dispatched;}
+
+    void setDispatched() {dispatched = true;}
+
+    /**
+     * Writes the processing progress of this {@link Data}
+     * @param out the destination
+     */
+    public void saveState(StateOutput out) throws IOException {
+        out.writeInt(processed.get());
+        synchronized (processedBatches) {
+            out.writeLongs(processedBatches.toLongArray());
+        }
+        out.writeBoolean(dispatched);
+    }
+
+    /**
+     * Replaces the processing progress of this {@link Data} with the one written by {@link #saveState(StateOutput)}.
+     * A fully processed {@link Data} is marked as processed without calling any {@link Callback}.
+     * @pre no {@link Callback} was registered by {@link #onProcessed(Callback)}
+     * @param in the source
+     */
+    public void restoreState(StateInput in) throws IOException {
+        processed.set(in.readInt());
+        synchronized (processedBatches) {
+            processedBatches.clear();
+            processedBatches.or(BitSet.valueOf(in.readLongs()));
+        }
+        dispatched = in.readBoolean();
+        if (isProcessed())
+            processedListeners.complete();
+    }
+
+    /**
+     * Registers a {@link Callback} to be called exactly once, when all the samples of this {@link Data} are processed.
+     * If the {@link Data} is already processed, {@code listener} is called immediately.
+     * @param listener the {@link Callback} to be called
+     */
+    public void onProcessed(Callback<Data> listener) {
+        processedListeners.add(listener);
+        if (isProcessed())
+            processedListeners.complete();
+    }
+
     /**
      * Converts the {@link Data} instance into multiple {@link DataBatch} objects
      * @return a ConcurrentLinkedDeque of {@link DataBatch}s derived from this {@link Data}
      */
     public ConcurrentLinkedDeque<DataBatch> toBatches() {
         ConcurrentLinkedDeque<DataBatch> batches = new ConcurrentLinkedDeque<DataBatch>();
-        for (int i = 0; i < (size/1000); i++) {
-            batches.addLast(new DataBatch(this, 1000*i));
+        for (int i = 0; i < getNumberOfBatches(); i++) {
+            batches.addLast(new DataBatch(this, BATCH_SIZE*i));
         }
         return batches;
     }
@@ -70,9 +168,16 @@ public class Data {
      * toString method used for generating the output file
      */
     public String toString(){
-        String output = "            Type: " + typeToString() +"\n";
-        output += "            Size: " + size + "\n";
-        return output;
+        return ReportText.render(this::writeTo);
+    }
+
+    /**
+     * Writes the {@link Data} in the format of the output file
+     * @param out the destination
+     */
+    public void writeTo(Appendable out) throws IOException {
+        out.append("            Type: ").append(typeToString()).append("\n");
+        out.append("            Size: ").append(String.valueOf(size)).append("\n");
     }
 
     public String typeToString(){
@@ -3,36 +3,72 @@ package bgu.spl.mics.application.objects;
 /**
  * Passive object representing a data used by a model.
  * Add fields and methods to this class as you see fit (including public methods and constructors).
+ * <p>
+ * A DataBatch is a thin view over a single batch of its {@link Data}. Internally, batches are passed around
+ * as packed {@code long} handles of (dataset id, batch index), see {@link #handle(int, int)}.
  */
 
 public class DataBatch {
 
     private Data data;
-    private int start_index;
-    private boolean isProcessed = false;
+    private int index;
 
 
     public DataBatch(Data data, int start_index) {
         this.data = data;
-        this.start_index = start_index;
+        this.index = start_index / Data.BATCH_SIZE;
     }
 
+    /**
+     * Packs a batch into a single {@code long}
+     * @param dataId the id of the batch's {@link Data}
+     * @param batchIndex the index of the batch in its {@link Data}
+     * @return the handle of the batch
+     */
+    public static long handle(int dataId, int batchIndex) {
+        return ((long) dataId << 32) | (batchIndex & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return the id of the {@link Data} of the batch represented by {@code handle}
+     */
+    public static int dataIdOf(long handle) {return (int) (handle >>> 32);}
+
+    /**
+     * @return the index of the batch represented by {@code handle} in its {@link Data}
+     */
+    public static int indexOf(long handle) {return (int) handle;}
+
     public Data.Type getType() {return  data.getType();}
 
     public Data getData(){ return data;}
 
-    public boolean isProcessed() {return isProcessed;}
+    public int getIndex() {return index;}
+
+    public int getStartIndex() {return index * Data.BATCH_SIZE;}
+
+    public long getHandle() {return handle(data.getId(), index);}
+
+    public boolean isProcessed() {return data.isBatchProcessed(index);}
 
     /**
      * Processes an amount of samples equivalent to one {@link DataBatch} in {@code data}
      */
     public void process() {
-        if (!isProcessed()) {
-            isProcessed = true;
-            data.process(1000);
-        }
+        data.processBatch(index);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DataBatch))
+            return false;
+        DataBatch other = (DataBatch) o;
+        return data == other.data && index == other.index;
     }
 
+    @Override
+    public int hashCode() {
+        return Long.hashCode(getHandle());
+    }
 
-    
 }
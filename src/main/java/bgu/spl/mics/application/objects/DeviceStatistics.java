@@ -0,0 +1,153 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Represents the statistics recorded by a single {@link CPU} or {@link GPU}.
+ * Each device owns its own instance, so recording never contends with other devices.
+ */
+public class DeviceStatistics {
+
+    private LongAdder busyTicks = new LongAdder();
+    private LongAdder idleTicks = new LongAdder();
+    private LongAdder batches = new LongAdder();
+    private LongAdder prefetchHits = new LongAdder();
+    private LongAdder prefetchMisses = new LongAdder();
+    private DeviceTimeline timeline = new DeviceTimeline();
+
+    /**
+     * Records a single tick of the device
+     * @param busy whether the device had work to do during this tick
+     */
+    public void recordTick(boolean busy) {
+        if (busy)
+            busyTicks.increment();
+        else
+            idleTicks.increment();
+    }
+
+    /**
+     * Records a single tick of the device, also in its {@link DeviceTimeline}
+     * @param busy whether the device had work to do during this tick
+     * @param queueDepth the number of work items queued on the device during this tick
+     */
+    public void recordTick(boolean busy, int queueDepth) {
+        recordTick(busy);
+        timeline.record(busy, queueDepth);
+    }
+
+    /**
+     * Records {@code amount} of {@link DataBatch}s handled by the device
+     */
+    public void recordBatches(int amount) {batches.add(amount);}
+
+    /**
+     * Records whether a {@link DataBatch} was already staged when the device needed it
+     * @param hit true iff the batch was staged ahead of time
+     */
+    public void recordPrefetch(boolean hit) {
+        if (hit)
+            prefetchHits.increment();
+        else
+            prefetchMisses.increment();
+    }
+
+    public long getBusyTicks() {return busyTicks.sum();}
+
+    public long getIdleTicks() {return idleTicks.sum();}
+
+    public long getBatches() {return batches.sum();}
+
+    public long getPrefetchHits() {return prefetchHits.sum();}
+
+    public long getPrefetchMisses() {return prefetchMisses.sum();}
+
+    /**
+     * @return the per-tick history of the device
+     */
+    public DeviceTimeline getTimeline() {return timeline;}
+
+    /**
+     * Writes the counters and the timeline of the device
+     * @param out the destination
+     */
+    public void saveState(StateOutput out) throws IOException {
+        out.writeLong(getBusyTicks());
+        out.writeLong(getIdleTicks());
+        out.writeLong(getBatches());
+        out.writeLong(getPrefetchHits());
+        out.writeLong(getPrefetchMisses());
+        timeline.saveState(out);
+    }
+
+    /**
+     * Replaces the counters and the timeline of the device with the ones written by {@link #saveState(StateOutput)}
+     * @param in the source
+     */
+    public void restoreState(StateInput in) throws IOException {
+        reset(busyTicks, in.readLong());
+        reset(idleTicks, in.readLong());
+        reset(batches, in.readLong());
+        reset(prefetchHits, in.readLong());
+        reset(prefetchMisses, in.readLong());
+        timeline.restoreState(in);
+    }
+
+    private static void reset(LongAdder counter, long value) {
+        counter.reset();
+        counter.add(value);
+    }
+
+    /**
+     * @param name the name of the device, used for reporting
+     * @return an immutable copy of the current values of the counters
+     */
+    public Snapshot snapshot(String name) {
+        return new Snapshot(name, getBusyTicks(), getIdleTicks(), getBatches(), getPrefetchHits(), getPrefetchMisses());
+    }
+
+    /**
+     * An immutable view of a {@link DeviceStatistics} instance at a single point in time
+     */
+    public static class Snapshot {
+
+        private final String name;
+        private final long busyTicks;
+        private final long idleTicks;
+        private final long batches;
+        private final long prefetchHits;
+        private final long prefetchMisses;
+
+        public Snapshot(String name, long busyTicks, long idleTicks, long batches, long prefetchHits, long prefetchMisses) {
+            this.name = name;
+            this.busyTicks = busyTicks;
+            this.idleTicks = idleTicks;
+            this.batches = batches;
+            this.prefetchHits = prefetchHits;
+            this.prefetchMisses = prefetchMisses;
+        }
+
+        public String getName() {return name;}
+
+        public long getBusyTicks() {return busyTicks;}
+
+        public long getIdleTicks() {return idleTicks;}
+
+        public long getBatches() {return batches;}
+
+        public long getPrefetchHits() {return prefetchHits;}
+
+        public long getPrefetchMisses() {return prefetchMisses;}
+
+        /**
+         * @return the percentage of recorded ticks in which the device was busy
+         */
+        public double getUtilization() {
+            long total = busyTicks + idleTicks;
+            if (total == 0)
+                return 0;
+            return (100.0 * busyTicks) / total;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.IOException;
+
+/**
+ * Represents the per-tick history of a single {@link CPU} or {@link GPU}: whether it was busy in every tick,
+ * and the depth of its work queue over time.
+ * <p>
+ * The two are kept apart, since the depth of a queue changes far more often than the device goes idle.
+ * The busy state is run-length encoded: the runs alternate between busy and idle, so each run is only its
+ * length, 4 bytes no matter how long it is. The depth is kept as samples of (tick, depth), a sample is taken only
+ * when the depth moved by at least 1/{@value #DEPTH_CHANGE_RATIO} of the last sampled depth (so every change of a
+ * shallow queue is kept), or when the queue emptied. Recording a tick costs at most 12 bytes and usually nothing.
+ * The device records its ticks from its own thread, readers should read the timeline once the device stopped ticking.
+ * @inv getNumberOfTicks() == the sum of the lengths of all the busy runs
+ */
+public class DeviceTimeline {
+
+    static final int DEPTH_CHANGE_RATIO = 8;
+
+    private boolean firstBusy = false; // the state of the first run, the following runs alternate
+    private int[] lengths = new int[16]; // the number of ticks in every busy or idle run
+    private int runs = 0;
+    private int[] sampleTicks = new int[16]; // the tick of every depth sample
+    private int[] sampleDepths = new int[16];
+    private int samples = 0;
+    private int ticks = 0;
+
+    /**
+     * Records a single tick of the device, extending the last run if the busy state did not change, and sampling
+     * the queue depth if it changed enough since the last sample
+     * @post getNumberOfTicks() == {@pre getNumberOfTicks()} + 1
+     * @param busy whether the device had work to do during this tick
+     * @param queueDepth the number of work items queued on the device during this tick
+     */
+    public synchronized void record(boolean busy, int queueDepth) {
+        if (runs > 0 && isBusy(runs - 1) == busy)
+            lengths[runs - 1]++;
+        else {
+            if (runs == 0)
+                firstBusy = busy;
+            if (runs == lengths.length)
+                lengths = grow(lengths);
+            lengths[runs] = 1;
+            runs++;
+        }
+        int depth = Math.max(0, queueDepth);
+        if (samples == 0 || changedEnough(sampleDepths[samples - 1], depth))
+            addSample(ticks, depth);
+        ticks++;
+    }
+
+    private static boolean changedEnough(int sampled, int depth) {
+        if (depth == sampled)
+            return false;
+        return depth == 0 || Math.abs(depth - sampled) >= Math.max(1, sampled / DEPTH_CHANGE_RATIO);
+    }
+
+    private boolean isBusy(int run) {
+        return firstBusy == (run % 2 == 0);
+    }
+
+    private void addSample(int tick, int depth) {
+        if (samples == sampleTicks.length) {
+            sampleTicks = grow(sampleTicks);
+            sampleDepths = grow(sampleDepths);
+        }
+        sampleTicks[samples] = tick;
+        sampleDepths[samples] = depth;
+        samples++;
+    }
+
+    public synchronized int getNumberOfTicks() {return ticks;}
+
+    /**
+     * @return the number of runs of ticks in which the device was busy, or idle, throughout
+     */
+    public synchronized int getNumberOfBusyRuns() {return runs;}
+
+    /**
+     * @return the number of samples of the queue depth
+     */
+    public synchronized int getNumberOfDepthSamples() {return samples;}
+
+    /**
+     * Copies the runs of the timeline, so they can be read while the device keeps recording.
+     * A run ends when the busy state changed or a new depth was sampled.
+     * @return an array of runs, each is {start tick, length, busy (0 or 1), queue depth}
+     */
+    public synchronized int[][] getRuns() {
+        int[][] copy = new int[runs + samples][];
+        int count = 0;
+        int start = 0;
+        int sample = 0;
+        for (int run = 0; run < runs; run++) {
+            int end = start + lengths[run];
+            while (start < end) {
+                while (sample + 1 < samples && sampleTicks[sample + 1] <= start)
+                    sample++;
+                int depthEnd = sample + 1 < samples ? Math.min(end, sampleTicks[sample + 1]) : end;
+                copy[count++] = new int[] {start, depthEnd - start, isBusy(run) ? 1 : 0, sampleDepths[sample]};
+                start = depthEnd;
+            }
+        }
+        int[][] result = new int[count][];
+        System.arraycopy(copy, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Writes the busy runs and the depth samples of the timeline
+     * @param out the destination
+     */
+    public synchronized void saveState(StateOutput out) throws IOException {
+        out.writeBoolean(firstBusy);
+        out.writeInt(runs);
+        for (int i = 0; i < runs; i++)
+            out.writeInt(lengths[i]);
+        out.writeInt(samples);
+        for (int i = 0; i < samples; i++) {
+            out.writeInt(sampleTicks[i]);
+            out.writeInt(sampleDepths[i]);
+        }
+    }
+
+    /**
+     * Replaces the history of the timeline with the one written by {@link #saveState(StateOutput)}
+     * @param in the source
+     */
+    public synchronized void restoreState(StateInput in) throws IOException {
+        runs = 0;
+        samples = 0;
+        ticks = 0;
+        firstBusy = in.readBoolean();
+        int savedRuns = in.readInt();
+        for (int i = 0; i < savedRuns; i++) {
+            if (runs == lengths.length)
+                lengths = grow(lengths);
+            lengths[runs] = in.readInt();
+            ticks += lengths[runs];
+            runs++;
+        }
+        int savedSamples = in.readInt();
+        for (int i = 0; i < savedSamples; i++)
+            addSample(in.readInt(), in.readInt());
+    }
+
+    private static int[] grow(int[] array) {
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,70 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The staging area of the {@link Cluster}, holding the {@link DataBatch}s (as packed handles,
+ * see {@link DataBatch#handle(int, int)}) of every {@link Data} waiting to be processed.
+ * The batches of a single {@link Data} are appended sequentially and read back in the same order.
+ * <p>
+ * Implementations are not required to be thread-safe, the {@link Cluster} synchronizes the access to its disk.
+ */
+public interface Disk extends Closeable {
+
+    /**
+     * Returned by {@link #poll(Data)} when there are no more batches of the {@link Data} on the disk
+     */
+    long NO_BATCH = -1L;
+
+    /**
+     * @pre data != null
+     * @param data the {@link Data} we suspect is on the disk
+     * @return true iff batches of {@code data} were appended to the disk and not yet cleared
+     */
+    boolean hasData(Data data);
+
+    /**
+     * Appends a single batch of {@code data} to the end of the disk.
+     * All the batches of a {@link Data} must be appended one after the other.
+     * @pre data != null && DataBatch.dataIdOf(handle) == data.getId()
+     * @post contains(handle)
+     * @param data the {@link Data} the batch belongs to
+     * @param handle the handle of the batch
+     */
+    void append(Data data, long handle);
+
+    /**
+     * @param handle the handle of the batch we suspect is on the disk
+     * @return true iff the batch was appended and was not yet removed or polled
+     */
+    boolean contains(long handle);
+
+    /**
+     * Removes a single batch from the disk
+     * @post !contains(handle)
+     * @param handle the handle of the batch to be removed
+     * @return true iff the batch was on the disk
+     */
+    boolean remove(long handle);
+
+    /**
+     * Removes the next batch of {@code data}, in the order the batches were appended
+     * @param data the {@link Data} whose next batch is requested
+     * @return the handle of the removed batch, or {@link #NO_BATCH} if none of the batches of {@code data} are left
+     */
+    long poll(Data data);
+
+    /**
+     * Removes {@code data} and all of its remaining batches from the disk
+     * @post !hasData(data)
+     * @param data the {@link Data} to be removed
+     */
+    void clear(Data data);
+
+    /**
+     * Releases the resources backing the disk, the disk must not be used afterwards
+     */
+    @Override
+    default void close() throws IOException {}
+}
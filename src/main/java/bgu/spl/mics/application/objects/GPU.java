@@ -1,8 +1,9 @@
 package bgu.spl.mics.application.objects;
 
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
 
 /**
  * Passive object representing a single GPU.
@@ -20,31 +21,40 @@ public class GPU {
     private Cluster cluster;
     private VRAM vram;
     private int timer = 0;
-    private Model currentModel = null;
-    private int currentTrainingBatchIndex = 0;
+    private TrainingShard currentShard = null;
+    private long currentArrival = 0; // the arrival of the currentShard to the training queue
+    private DeviceStatistics stats = new DeviceStatistics();
+    private TrainingPolicy policy = TrainingPolicy.FIFO;
+    private PriorityQueue<QueuedShard> trainingQueue = new PriorityQueue<QueuedShard>();
+    private long queuedCounter = 0;
+    private int syncInterval = 0; // in batches, 0 means the trained samples are synchronized once the shard is done
+    private int prefetchWindow;
+    private PreemptionPolicy preemptionPolicy = PreemptionPolicy.NEVER;
+    private int preemptions = 0;
 
     public GPU(Type type, Cluster cluster) {
         this.type = type;
         this.cluster = cluster;
-        int VramCapacity = 0;
-        switch (type) {
-            case RTX3090: VramCapacity = 32;
-            case RTX2080: VramCapacity = 16;
-            case GTX1080: VramCapacity = 8;
-        }
-        vram = new VRAM(VramCapacity);
+        vram = new VRAM(vramCapacity(type));
+        prefetchWindow = vram.getCapacity();
     }
 
     public GPU(String type, Cluster cluster) {
         this.type = stringToType(type);
         this.cluster = cluster;
-        int VramCapacity = 0;
-        switch (this.type) {
-            case RTX3090: VramCapacity = 32;
-            case RTX2080: VramCapacity = 16;
-            case GTX1080: VramCapacity = 8;
+        vram = new VRAM(vramCapacity(this.type));
+        prefetchWindow = vram.getCapacity();
+    }
+
+    /**
+     * @return the number of {@link DataBatch}s the VRAM of a {@link GPU} of the given {@link Type} can hold
+     */
+    private static int vramCapacity(Type type) {
+        switch (type) {
+            case RTX3090: return 32;
+            case RTX2080: return 16;
+            default: return 8;
         }
-        vram = new VRAM(VramCapacity);
     }
 
     private Type stringToType(String type) {
@@ -59,8 +69,9 @@ public class GPU {
     /**
      * Advance the timer by one tick
      */
-    public void tick() {
+    public synchronized void tick() {
         timer++;
+        stats.recordTick(currentShard != null || !trainingQueue.isEmpty(), trainingQueue.size());
         checkTrained();
     }
 
@@ -74,15 +85,91 @@ public class GPU {
      */
     public Cluster getCluster() {return cluster;}
 
+    /**
+     * @return the busy/idle ticks and batches recorded by this {@link GPU}
+     */
+    public DeviceStatistics getStatistics() {return stats;}
+
+    /**
+     * Sets the {@link TrainingPolicy} deciding the order of the {@link Model}s queued for training
+     * @param policy the new {@link TrainingPolicy}
+     */
+    public synchronized void setTrainingPolicy(TrainingPolicy policy) {
+        if (policy != null) {
+            this.policy = policy;
+            PriorityQueue<QueuedShard> reordered = new PriorityQueue<QueuedShard>();
+            reordered.addAll(trainingQueue);
+            trainingQueue = reordered;
+        }
+    }
+
+    /**
+     * Sets how often the samples trained by this {@link GPU} are added to the trained {@link Model}
+     * @param syncInterval the number of batches between synchronizations, or 0 to synchronize only at the end
+     *                     of each shard
+     */
+    public synchronized void setSyncInterval(int syncInterval) {
+        this.syncInterval = Math.max(0, syncInterval);
+    }
+
+    /**
+     * Sets the number of upcoming {@link DataBatch}s the {@link GPU} keeps staged in its VRAM
+     * @param prefetchWindow the number of staged batches, capped by the capacity of the VRAM
+     */
+    public synchronized void setPrefetchWindow(int prefetchWindow) {
+        this.prefetchWindow = Math.max(1, Math.min(prefetchWindow, vram.getCapacity()));
+    }
+
+    public int getPrefetchWindow() {return prefetchWindow;}
+
+    /**
+     * Sets the {@link PreemptionPolicy} deciding when a queued {@link Model} pauses the training of the current one
+     * @param preemptionPolicy the new {@link PreemptionPolicy}
+     */
+    public synchronized void setPreemptionPolicy(PreemptionPolicy preemptionPolicy) {
+        if (preemptionPolicy != null)
+            this.preemptionPolicy = preemptionPolicy;
+    }
+
+    /**
+     * @return how many times this {@link GPU} paused the training of a {@link Model} in favour of another one
+     */
+    public synchronized int getPreemptions() {return preemptions;}
+
+    /**
+     * @return the number of {@link Model}s waiting to be trained, not including the one currently training
+     */
+    public synchronized int getTrainingQueueSize() {return trainingQueue.size();}
+
+    /**
+     * @return the number of {@link DataBatch}s the VRAM of this {@link GPU} can hold
+     */
+    public int getVramCapacity() {return vram.getCapacity();}
+
+    /**
+     * Calculates the training work this {@link GPU} has already committed to: the rest of the current
+     * {@link Model} and every {@link Model} in its training queue
+     * @return how many ticks the committed work will take
+     */
+    public synchronized long getCommittedTicks() {
+        long ticks = 0;
+        if (currentShard != null)
+            ticks += (long) timeToTrain() * currentShard.getRemainingBatches();
+        for (QueuedShard queued : trainingQueue) {
+            ticks += (long) timeToTrain() * queued.shard.getRemainingBatches();
+        }
+        return ticks;
+    }
+
     /**
      * Transfers a given {@link DataBatch} from the {@link Cluster} to the {@link GPU}'s {@code vram}
      * @param db - the {@link DataBatch} to be transferred
      */
     public void diskToVRAM(DataBatch db) {
         if (db != null && cluster.diskContains(db)) {
-            if (!vram.isFull() && !vram.contains(db)) {
+            if (vram.canHold(db.getHandle())) {
                 cluster.removeFromDisk(db);
-                vram.add(db);
+                vram.add(db.getHandle());
             }
         }
     }
@@ -92,57 +179,143 @@ public class GPU {
      */
     public void startProcessing(Model model) {
         Data data = model.getData();
-        ConcurrentLinkedDeque<DataBatch> batches = data.toBatches();
-        cluster.addToDisk(batches);
+        cluster.addToDisk(data);
         cluster.process(data);
     }
 
     /**
-     * Initiates the training of {@param model} in {@cod this} {@link GPU}
+     * Queues {@param model} for training in {@cod this} {@link GPU}.
+     * If the {@link GPU} is not training any other {@link Model}, the training of {@param model} begins immediately.
+     */
+    public synchronized void startTraining(Model model) {
+        if (model != null) {
+            model.startShards(1);
+            startTraining(new TrainingShard(model, 0, model.getData().getNumberOfBatches()));
+        }
+    }
+
+    /**
+     * Queues a single shard of a {@link Model} for training in {@code this} {@link GPU}
+     * @pre the shard was declared on its {@link Model} using {@link Model#startShards(int)}
      */
-    public void startTraining(Model model) {
-        model.setTraining();
-        currentModel = model;
+    synchronized void startTraining(TrainingShard shard) {
+        trainingQueue.add(new QueuedShard(shard, queuedCounter));
+        queuedCounter++;
+        if (currentShard == null)
+            trainNextShard();
     }
 
     /**
-     * Check if a {@link Model} finished its training and acts accordingly
+     * Check if a {@link Model} finished its training and acts accordingly.
+     * Once a {@link Model} is trained, the next queued {@link Model} starts training in the same tick.
      */
-    public void checkTrained() {
-        if (currentModel != null) {
-            if (currentTrainingBatchIndex >= currentModel.getData().toBatches().size()-1) {
-                currentModel.setTrained();
-                cluster.updateStats(0,0,timeToTrain(currentModel));
-                currentModel = null;
-                currentTrainingBatchIndex = 0;
+    public synchronized void checkTrained() {
+        if (currentShard == null)
+            trainNextShard();
+        else
+            checkPreemption();
+        if (currentShard != null) {
+            TrainDataBatches();
+            if (currentShard.isDone()) {
+                finishShard();
+                trainNextShard();
+                if (currentShard != null)
+                    TrainDataBatches();
             }
-            else {
-                TrainDataBatches();
+        }
+    }
+
+    /**
+     * Takes the next shard out of the training queue, according to the {@link TrainingPolicy}
+     */
+    private void trainNextShard() {
+        QueuedShard next = trainingQueue.poll();
+        if (next != null)
+            train(next);
+    }
+
+    /**
+     * Makes {@code next} the {@code currentShard}, restoring the VRAM from its checkpoint if it was paused before
+     */
+    private void train(QueuedShard next) {
+        if (next != null) {
+            currentShard = next.shard;
+            currentArrival = next.arrival;
+            currentShard.getModel().setTraining();
+            if (currentShard.hasCheckpoint()) {
+                vram.restore(currentShard.getCheckpointHandles(), currentShard.getCheckpointDelays());
+                currentShard.clearCheckpoint();
             }
         }
     }
 
+    /**
+     * Pauses the {@code currentShard} if the {@link PreemptionPolicy} prefers the shortest shard in the training
+     * queue, which is not necessarily the first one under the {@link TrainingPolicy}.
+     * The paused shard is checkpointed together with the batches in the VRAM, and is queued again with its
+     * original arrival, so it resumes from where it stopped.
+     */
+    private void checkPreemption() {
+        QueuedShard waiting = null;
+        for (QueuedShard queued : trainingQueue) {
+            if (waiting == null || queued.shard.getRemainingBatches() < waiting.shard.getRemainingBatches())
+                waiting = queued;
+        }
+        if (waiting == null)
+            return;
+        long runningTicks = (long) timeToTrain() * currentShard.getRemainingBatches();
+        long waitingTicks = (long) timeToTrain() * waiting.shard.getRemainingBatches();
+        if (preemptionPolicy.shouldPreempt(this, runningTicks, waitingTicks)) {
+            trainingQueue.remove(waiting);
+            vram.checkpoint(currentShard);
+            vram.clear();
+            trainingQueue.add(new QueuedShard(currentShard, currentArrival));
+            preemptions++;
+            train(waiting);
+        }
+    }
+
+    /**
+     * Synchronizes the samples of the finished {@code currentShard} into its {@link Model}
+     */
+    private void finishShard() {
+        Model model = currentShard.getModel();
+        currentShard.sync();
+        cluster.updateStats(0,0,timeToTrain() * currentShard.size());
+        if (model.finishShard())
+            cluster.addTrainedModel(model);
+        currentShard = null;
+        vram.clear();
+    }
+
 
     /**
-     * Trains the {@code currentModel} on the {@link DataBatch}s in the {@link VRAM}
+     * Trains the {@code currentShard} on the {@link DataBatch}s in the {@link VRAM}
      */
     public void TrainDataBatches(){
-        while (!vram.isEmpty() && vram.getFirst().getReadyTime() <= timer) {
-            currentModel.train();
-            currentTrainingBatchIndex++;
+        while (!vram.isEmpty() && vram.getFirstReadyTime() <= timer) {
             vram.removeFirst();
+            currentShard.batchTrained();
+            stats.recordBatches(1);
+            if (syncInterval > 0 && currentShard.getUnsyncedBatches() >= syncInterval)
+                currentShard.sync();
         }
-        while (!vram.isFull() && currentTrainingBatchIndex < currentModel.getData().toBatches().size()) {
-            Iterator<DataBatch> iter = currentModel.getData().toBatches().iterator();
-            int iterIndex = 0;
-            DataBatch toTrain = null;
-            while (iter.hasNext() && toTrain == null) {
-                if (iterIndex == currentTrainingBatchIndex)
-                    toTrain = iter.next();
-                iterIndex++;
-            }
-            vram.add(toTrain);
-            currentTrainingBatchIndex++;
+        prefetch();
+    }
+
+    /**
+     * Stages the upcoming batches of the {@code currentShard} in the VRAM, ahead of the training cursor, until
+     * {@code prefetchWindow} batches are staged. Only batches whose processing in the {@link Cluster} is done
+     * can be staged.
+     * A batch staged while the VRAM still held batches to train on is a prefetch hit, a batch staged into an
+     * empty VRAM (so the {@link GPU} waited for it) is a prefetch miss.
+     */
+    private void prefetch() {
+        Data data = currentShard.getModel().getData();
+        while (vram.getSize() < prefetchWindow && currentShard.hasNextToLoad()
+                && data.isBatchProcessed(currentShard.getNextToLoad())) {
+            stats.recordPrefetch(!vram.isEmpty());
+            vram.add(currentShard.nextHandle());
         }
     }
 
@@ -151,13 +324,11 @@ public class GPU {
      * @return how many ticks the training will take
      */
     public int timeToTrain() {
-        int time = -1;
         switch (type) {
-            case RTX3090: time = 1;
-            case RTX2080: time = 2;
-            case GTX1080: time = 4;
+            case RTX3090: return 1;
+            case RTX2080: return 2;
+            default: return 4;
         }
-        return time;
     }
 
     /**
@@ -166,85 +337,251 @@ public class GPU {
      * @return how many ticks the training will take
      */
     public int timeToTrain(Model model) {
-        return timeToTrain() * model.getData().toBatches().size();
+        return timeToTrain() * model.getData().getNumberOfBatches();
     }
 
 
     /**
-     * Tests a given {@link Model} according to the degree of the relevant {@link Student}
+     * Tests a given {@link Model} according to the degree of the relevant {@link Student}.
+     * The result is drawn from the {@link Model#getTestSeed()} of the {@link Model}, so it does not depend on
+     * which {@link GPU} tests it or on the order of the tests.
      * @pre model.getResults() != Good
      * @post model.getStatus() == Tested
      * @param model the model to be tested
-     * @return true in prob. of 0.1 for {@code MSc} and in prob. of 0.2 for {@code Phd}
+     * @return Good in prob. of 0.6 for {@code MSc} and in prob. of 0.8 for {@code Phd}
      */
     public void testModel(Model model) {
-        model.setTested();
         Model.Results results = Model.Results.Bad;
         Student.Degree degree = model.getStudent().getStatus();
-        double r = Math.random();
+        double r = new SplittableRandom(model.getTestSeed()).nextDouble();
         switch (degree) {
             case MSc:
                 if (r < 0.6) results = Model.Results.Good;
+                break;
             case PhD:
                 if (r < 0.8) results = Model.Results.Good;
+                break;
         }
         model.setResults(results);
+        model.setTested();
+    }
+
+    /**
+     * Writes the timer, the statistics, the current and queued shards and the VRAM of this
+     * {@link GPU}. The order of the training queue is written as is, the {@link TrainingPolicy} is not.
+     * @param out the destination
+     */
+    public synchronized void saveState(StateOutput out) throws IOException {
+        out.writeInt(timer);
+        stats.saveState(out);
+        out.writeLong(queuedCounter);
+        out.writeInt(preemptions);
+        out.writeBoolean(currentShard != null);
+        if (currentShard != null) {
+            out.writeLong(currentArrival);
+            currentShard.saveState(out);
+        }
+        out.writeInt(vram.getSize());
+        for (int i = 0; i < vram.getSize(); i++) {
+            out.writeHandle(vram.getHandle(i));
+            out.writeInt(vram.getReadyTime(i) - timer);
+        }
+        out.writeInt(trainingQueue.size());
+        for (QueuedShard queued : trainingQueue) {
+            out.writeLong(queued.arrival);
+            queued.shard.saveState(out);
+        }
     }
 
     /**
-     * A class representing a {@link GPU}'s VRAM
+     * Replaces the state of this {@link GPU} with the one written by {@link #saveState(StateOutput)}
+     * @pre the {@link GPU} has the same {@link Type} as the saved one
+     * @param in the source
+     */
+    public synchronized void restoreState(StateInput in) throws IOException {
+        timer = in.readInt();
+        stats.restoreState(in);
+        queuedCounter = in.readLong();
+        preemptions = in.readInt();
+        currentShard = null;
+        if (in.readBoolean()) {
+            currentArrival = in.readLong();
+            currentShard = TrainingShard.restoreState(in);
+        }
+        long[] handles = new long[in.readInt()];
+        int[] delays = new int[handles.length];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = in.readHandle();
+            delays[i] = in.readInt();
+        }
+        if (handles.length > vram.getCapacity())
+            throw new IOException("The snapshot has more batches in the VRAM of a GPU than it can hold");
+        vram.restore(handles, delays);
+        trainingQueue.clear();
+        int queued = in.readInt();
+        for (int i = 0; i < queued; i++) {
+            long arrival = in.readLong();
+            trainingQueue.add(new QueuedShard(TrainingShard.restoreState(in), arrival));
+        }
+    }
+
+    /**
+     * A class representing a {@link GPU}'s VRAM.
+     * The batches are kept in a fixed-capacity ring buffer of primitive arrays, and the VRAM holds the batches
+     * of a single {@link Data} at a time, so membership is a {@link BitSet} lookup by batch index.
+     * Adding, peeking and removing the first batch never allocate.
      */
     private class VRAM {
 
         private int capacity;
-        LinkedList<TimedBatch> batches;
+        private long[] handles;
+        private int[] readyTimes;
+        private int head = 0;
+        private int size = 0;
+        private int dataId = -1; // the id of the Data whose batches are in the VRAM
+        private BitSet members = new BitSet();
 
         public VRAM(int capacity) {
             this.capacity = capacity;
-            batches = new LinkedList<TimedBatch>();
+            handles = new long[capacity];
+            readyTimes = new int[capacity];
         }
 
-        public int getSize() {return batches.size();}
+        public int getSize() {return size;}
+
+        public int getCapacity() {return capacity;}
+
+        public boolean isEmpty() {return size == 0;}
+
+        public boolean isFull() {return size == capacity;}
 
-        public boolean isEmpty() {return batches.isEmpty();}
+        /**
+         * @pre 0 <= i < getSize()
+         * @return the handle of the {@code i}th batch from the start of the VRAM
+         */
+        public long getHandle(int i) {return handles[(head + i) % capacity];}
 
-        public boolean isFull() {return batches.size() == capacity;}
+        /**
+         * @pre 0 <= i < getSize()
+         * @return the time in which the {@code i}th batch from the start of the VRAM will be trained
+         */
+        public int getReadyTime(int i) {return readyTimes[(head + i) % capacity];}
 
-        public boolean contains(DataBatch db) {return batches.contains(db);}
+        public boolean contains(long handle) {
+            return !isEmpty() && DataBatch.dataIdOf(handle) == dataId && members.get(DataBatch.indexOf(handle));
+        }
+
+        /**
+         * @return true iff {@code handle} can be added to the VRAM alongside the batches already in it
+         */
+        public boolean canHold(long handle) {
+            return !isFull() && (isEmpty() || DataBatch.dataIdOf(handle) == dataId) && !contains(handle);
+        }
 
-        public void add(DataBatch db) {
+        public void add(long handle) {
             if (isFull())
                 throw new IndexOutOfBoundsException("This GPU's VRAM is currently full");
+            if (!isEmpty() && DataBatch.dataIdOf(handle) != dataId)
+                throw new IllegalArgumentException("This GPU's VRAM holds the batches of a different Data");
             int timeToTrain = timeToTrain();
-            if (isEmpty())
-                batches.addLast(new TimedBatch(db, timer + timeToTrain));
-            else
-                batches.addLast(new TimedBatch(db, getLast().getReadyTime() + timeToTrain));
+            int readyTime = timer + timeToTrain;
+            if (!isEmpty())
+                readyTime = readyTimes[(head + size - 1) % capacity] + timeToTrain;
+            dataId = DataBatch.dataIdOf(handle);
+            int tail = (head + size) % capacity;
+            handles[tail] = handle;
+            readyTimes[tail] = readyTime;
+            members.set(DataBatch.indexOf(handle));
+            size++;
+        }
 
+        public void remove(long handle) {
+            if (contains(handle)) {
+                int offset = 0;
+                while (handles[(head + offset) % capacity] != handle)
+                    offset++;
+                for (int i = offset; i < size - 1; i++) {
+                    handles[(head + i) % capacity] = handles[(head + i + 1) % capacity];
+                    readyTimes[(head + i) % capacity] = readyTimes[(head + i + 1) % capacity];
+                }
+                size--;
+                members.clear(DataBatch.indexOf(handle));
+            }
         }
 
-        public void remove(DataBatch db) {
-            if (contains(db)) {
-                batches.remove(db);
+        /**
+         * @pre !isEmpty()
+         * @return the time in which the first batch in the VRAM will be trained
+         */
+        public int getFirstReadyTime() {
+            return readyTimes[head];
+        }
+
+        public void removeFirst() {
+            if (!isEmpty()) {
+                members.clear(DataBatch.indexOf(handles[head]));
+                head = (head + 1) % capacity;
+                size--;
             }
         }
 
-        public TimedBatch getFirst() {
-            if (!isEmpty())
-                return batches.getFirst();
-            return null;
+        public void clear() {
+            members.clear();
+            head = 0;
+            size = 0;
         }
 
-        public TimedBatch getLast() {
-            if (!isEmpty())
-                return batches.getLast();
-            return null;
+        /**
+         * Saves the batches in the VRAM into {@code shard}, with the number of ticks each of them still needs
+         * @param shard the shard whose batches are in the VRAM
+         */
+        public void checkpoint(TrainingShard shard) {
+            long[] savedHandles = new long[size];
+            int[] delays = new int[size];
+            for (int i = 0; i < size; i++) {
+                savedHandles[i] = handles[(head + i) % capacity];
+                delays[i] = Math.max(0, readyTimes[(head + i) % capacity] - timer);
+            }
+            shard.checkpoint(savedHandles, delays);
         }
 
-        public void removeFirst() {
-            if (!isEmpty())
-                batches.removeFirst();
+        /**
+         * Loads batches saved by {@link #checkpoint(TrainingShard)} back into the empty VRAM,
+         * so each of them is ready after the number of ticks it still needed when it was saved
+         * @pre isEmpty()
+         */
+        public void restore(long[] savedHandles, int[] delays) {
+            clear();
+            for (int i = 0; i < savedHandles.length && i < capacity; i++) {
+                handles[i] = savedHandles[i];
+                readyTimes[i] = timer + delays[i];
+                members.set(DataBatch.indexOf(savedHandles[i]));
+                dataId = DataBatch.dataIdOf(savedHandles[i]);
+                size++;
+            }
+        }
+
+    }
+
+    /**
+     * A {@link TrainingShard} waiting in the training queue, ordered by the {@link TrainingPolicy} and then by arrival
+     */
+    private class QueuedShard implements Comparable<QueuedShard> {
+
+        private TrainingShard shard;
+        private long arrival;
+
+        public QueuedShard(TrainingShard shard, long arrival) {
+            this.shard = shard;
+            this.arrival = arrival;
         }
 
+        @Override
+        public int compareTo(QueuedShard other) {
+            int order = policy.compare(GPU.this, shard.getModel(), other.shard.getModel());
+            if (order != 0)
+                return order;
+            return Long.compare(arrival, other.arrival);
+        }
     }
 }
@@ -0,0 +1,52 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.HashMap;
+
+/**
+ * A {@link Disk} keeping the staged batches on the Java heap, in a {@link BatchQueue} per {@link Data}.
+ * This is the default disk of the {@link Cluster}.
+ */
+public class HeapDisk implements Disk {
+
+    private HashMap<Integer, BatchQueue> batches = new HashMap<Integer, BatchQueue>();
+
+    @Override
+    public boolean hasData(Data data) {
+        return batches.containsKey(data.getId());
+    }
+
+    @Override
+    public void append(Data data, long handle) {
+        BatchQueue queue = batches.get(data.getId());
+        if (queue == null) {
+            queue = new BatchQueue(data.getNumberOfBatches());
+            batches.put(data.getId(), queue);
+        }
+        queue.addLast(handle, 0);
+    }
+
+    @Override
+    public boolean contains(long handle) {
+        BatchQueue queue = batches.get(DataBatch.dataIdOf(handle));
+        return queue != null && queue.contains(handle);
+    }
+
+    @Override
+    public boolean remove(long handle) {
+        BatchQueue queue = batches.get(DataBatch.dataIdOf(handle));
+        return queue != null && queue.remove(handle);
+    }
+
+    @Override
+    public long poll(Data data) {
+        BatchQueue queue = batches.get(data.getId());
+        if (queue == null || queue.isEmpty())
+            return NO_BATCH;
+        return queue.removeFirst();
+    }
+
+    @Override
+    public void clear(Data data) {
+        batches.remove(data.getId());
+    }
+}
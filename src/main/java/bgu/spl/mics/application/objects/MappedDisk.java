@@ -0,0 +1,196 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A {@link Disk} keeping the staged batches off the Java heap, in a memory-mapped file.
+ * <p>
+ * The file is a sequence of fixed-size records, each holding the handle of a batch and its state.
+ * Records are only appended at the end of the file, and the batches of a single {@link Data} form a
+ * contiguous segment, so a batch is read by its index without scanning. Only the bounds of each segment are
+ * kept on the heap. The file is mapped in regions, so it can grow beyond the size of a single mapping.
+ * Once every segment is cleared, the file is reused from its beginning.
+ */
+public class MappedDisk implements Disk {
+
+    private static final int RECORD_SIZE = 16; // handle (8 bytes), state (4 bytes), reserved (4 bytes)
+    private static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+    private static final int REMOVED = 0;
+    private static final int STAGED = 1;
+
+    private File path;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private int regionSize;
+    private int recordsPerRegion;
+    private ArrayList<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+    private HashMap<Integer, Segment> segments = new HashMap<Integer, Segment>();
+    private long tail = 0; // the index of the next record to be appended
+
+    public MappedDisk(File file) throws IOException {
+        this(file, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * @pre file != null && regionSize >= 16
+     * @param file the file backing the disk, created if it does not exist
+     * @param regionSize the size in bytes of each mapped region of the file
+     */
+    public MappedDisk(File file, int regionSize) throws IOException {
+        this.path = file;
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        this.recordsPerRegion = Math.max(1, regionSize / RECORD_SIZE);
+        this.regionSize = recordsPerRegion * RECORD_SIZE;
+    }
+
+    @Override
+    public boolean hasData(Data data) {
+        return segments.containsKey(data.getId());
+    }
+
+    @Override
+    public void append(Data data, long handle) {
+        Segment segment = segments.get(data.getId());
+        if (segment == null) {
+            segment = new Segment(tail, DataBatch.indexOf(handle));
+            segments.put(data.getId(), segment);
+        }
+        else if (segment.start + segment.count != tail)
+            throw new IllegalStateException("The batches of a Data must be appended one after the other");
+        write(tail, handle, STAGED);
+        tail++;
+        segment.count++;
+    }
+
+    @Override
+    public boolean contains(long handle) {
+        return find(handle) != -1;
+    }
+
+    @Override
+    public boolean remove(long handle) {
+        long record = find(handle);
+        if (record == -1)
+            return false;
+        setState(record, REMOVED);
+        return true;
+    }
+
+    @Override
+    public long poll(Data data) {
+        Segment segment = segments.get(data.getId());
+        if (segment == null)
+            return NO_BATCH;
+        while (segment.cursor < segment.count) {
+            long record = segment.start + segment.cursor;
+            segment.cursor++;
+            if (getState(record) == STAGED) {
+                setState(record, REMOVED);
+                return getHandle(record);
+            }
+        }
+        return NO_BATCH;
+    }
+
+    @Override
+    public void clear(Data data) {
+        segments.remove(data.getId());
+        if (segments.isEmpty())
+            tail = 0;
+    }
+
+    /**
+     * Releases the file backing the disk and deletes it
+     */
+    @Override
+    public void close() throws IOException {
+        regions.clear();
+        segments.clear();
+        tail = 0;
+        channel.close();
+        file.close();
+        // A region stays mapped until it is garbage collected, and some platforms cannot delete a mapped file
+        if (!path.delete() && path.exists())
+            path.deleteOnExit();
+    }
+
+    /**
+     * @return the index of the record holding the staged batch {@code handle}, or -1 if there is no such record
+     */
+    private long find(long handle) {
+        Segment segment = segments.get(DataBatch.dataIdOf(handle));
+        if (segment == null)
+            return -1;
+        long direct = DataBatch.indexOf(handle) - segment.firstIndex;
+        if (direct >= segment.cursor && direct < segment.count && getHandle(segment.start + direct) == handle)
+            return getState(segment.start + direct) == STAGED ? segment.start + direct : -1;
+        for (long i = segment.cursor; i < segment.count; i++) {
+            if (getHandle(segment.start + i) == handle && getState(segment.start + i) == STAGED)
+                return segment.start + i;
+        }
+        return -1;
+    }
+
+    private void write(long record, long handle, int state) {
+        MappedByteBuffer region = region(record);
+        int offset = offset(record);
+        region.putLong(offset, handle);
+        region.putInt(offset + 8, state);
+    }
+
+    private long getHandle(long record) {
+        return region(record).getLong(offset(record));
+    }
+
+    private int getState(long record) {
+        return region(record).getInt(offset(record) + 8);
+    }
+
+    private void setState(long record, int state) {
+        region(record).putInt(offset(record) + 8, state);
+    }
+
+    private int offset(long record) {
+        return (int) (record % recordsPerRegion) * RECORD_SIZE;
+    }
+
+    /**
+     * @return the mapped region holding {@code record}, mapping new regions of the file if needed
+     */
+    private MappedByteBuffer region(long record) {
+        int index = (int) (record / recordsPerRegion);
+        try {
+            while (regions.size() <= index) {
+                long position = (long) regions.size() * regionSize;
+                regions.add(channel.map(FileChannel.MapMode.READ_WRITE, position, regionSize));
+            }
+        } catch (IOException exc) {
+            throw new UncheckedIOException("Could not map the disk file", exc);
+        }
+        return regions.get(index);
+    }
+
+    /**
+     * The bounds of the records of a single {@link Data} in the file
+     */
+    private static class Segment {
+
+        private long start;
+        private int firstIndex;
+        private int count = 0;
+        private int cursor = 0; // the records before the cursor were already polled
+
+        public Segment(long start, int firstIndex) {
+            this.start = start;
+            this.firstIndex = firstIndex;
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package bgu.spl.mics.application.objects;
 
-import jdk.nashorn.internal.runtime.regexp.joni.constants.TargetInfo;
+import bgu.spl.mics.Callback;
+
+import java.io.IOException;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Passive object representing a Deep Learning model.
@@ -16,13 +21,17 @@ public class Model {
     private String name;
     private Data data;
     private Student student;
-    private int trained = 0;
+    private AtomicInteger trained = new AtomicInteger(0);
+    private AtomicInteger unfinishedShards = new AtomicInteger(0);
     private Status status;
     private Results results;
     private boolean isPublished = false;
     private boolean isSentToTraining = false;
     private boolean isSentToProcessing = false;
     private boolean isSentToTesting = false;
+    private long testSeed = ThreadLocalRandom.current().nextLong();
+    private CompletionListeners<Model> trainedListeners = new CompletionListeners<Model>(this);
+    private CompletionListeners<Model> testedListeners = new CompletionListeners<Model>(this);
 
     /**
      * Constructs a new untrained Model instance
@@ -64,7 +73,12 @@ public class Model {
 
     public void sendToProcessing() { this.isSentToProcessing = true;}
 
-    public boolean isFullyTrained() {return trained >= data.getSize();}
+    public boolean isFullyTrained() {return trained.get() >= data.getSize();}
+
+    /**
+     * @return the number of samples this {@link Model} was trained on so far
+     */
+    public int getTrained() {return trained.get();}
 
     public Results getResults() {return results;}
 
@@ -73,18 +87,70 @@ public class Model {
     public boolean isPublished() {return isPublished;}
 
     public void train() {
-        trained += 1000;
-        if (trained >= data.getSize()) {
-            this.status = Status.Trained;
-            trained = data.getSize();
+        addTrained(Data.BATCH_SIZE);
+    }
+
+    /**
+     * Adds samples trained by one of the {@link GPU}s to this {@link Model}.
+     * The {@link Model} becomes trained once it was trained on all of its {@link Data} and none of its
+     * shards are still training.
+     * @param samples the number of samples trained
+     */
+    public void addTrained(int samples) {
+        int total = trained.updateAndGet(t -> Math.min(data.getSize(), t + samples));
+        if (total >= data.getSize() && unfinishedShards.get() == 0)
+            setTrained();
+    }
+
+    /**
+     * @return true iff some shards of this {@link Model} were queued on {@link GPU}s and did not finish training yet
+     */
+    public boolean isQueuedForTraining() {return unfinishedShards.get() > 0;}
+
+    /**
+     * Declares that the training of this {@link Model} is split into {@code shards} shards,
+     * each trained by a different {@link GPU}
+     * @pre shards > 0
+     */
+    void startShards(int shards) {
+        unfinishedShards.addAndGet(shards);
+    }
+
+    /**
+     * Declares that one of the shards of this {@link Model} finished its training
+     * @return true iff this was the last unfinished shard, in which case the {@link Model} is now trained
+     */
+    boolean finishShard() {
+        if (unfinishedShards.decrementAndGet() == 0) {
+            setTrained();
+            return true;
         }
+        return false;
     }
 
     public void setTraining() {status = Status.Training;}
 
-    public void setTrained() {status = Status.Trained;}
+    public void setTrained() {
+        status = Status.Trained;
+        trainedListeners.complete();
+    }
+
+    public void setTested() {
+        status = Status.Tested;
+        testedListeners.complete();
+    }
 
-    public void setTested() {status = Status.Tested;}
+    /**
+     * Registers a {@link Callback} to be called exactly once, when this {@link Model} finishes its training.
+     * If the {@link Model} is already trained, {@code listener} is called immediately.
+     */
+    public void onTrained(Callback<Model> listener) {trainedListeners.add(listener);}
+
+    /**
+     * Registers a {@link Callback} to be called exactly once, when this {@link Model} finishes its testing.
+     * If the {@link Model} is already tested, {@code listener} is called immediately.
+     */
+    public void onTested(Callback<Model> listener) {testedListeners.add(listener);}
 
     public void sendToTraining() {isSentToTraining = true;}
 
@@ -92,11 +158,96 @@ public class Model {
 
     public void publish() {isPublished = true;}
 
-    public String toString(){
-        String output =  "        Name: "+name+"\n";
-        output += "        Data:\n" + data.toString();
-        return output;
+    /**
+     * @return the seed of the random draw deciding the results of testing this {@link Model}
+     */
+    public long getTestSeed() {return testSeed;}
 
+    /**
+     * Sets the seed of the test draw. Deriving it from the seed of the run and the position of the {@link Model}
+     * in the input makes the results of a run reproducible, whichever {@link GPU} ends up testing the {@link Model}.
+     * @param testSeed the seed of the test draw
+     */
+    public void setTestSeed(long testSeed) {this.testSeed = testSeed;}
 
+    /**
+     * Writes the progress of this {@link Model} and of its {@link Data}
+     * @param out the destination
+     */
+    public void saveState(StateOutput out) throws IOException {
+        out.writeInt(status.ordinal());
+        out.writeInt(results.ordinal());
+        out.writeInt(trained.get());
+        out.writeInt(unfinishedShards.get());
+        out.writeBoolean(isPublished);
+        out.writeBoolean(isSentToProcessing);
+        out.writeBoolean(isSentToTraining);
+        out.writeBoolean(isSentToTesting);
+        data.saveState(out);
+    }
+
+    /**
+     * Replaces the progress of this {@link Model} and of its {@link Data} with the one written by
+     * {@link #saveState(StateOutput)}. A trained or tested {@link Model} is marked as such without calling
+     * any {@link Callback}.
+     * @pre no {@link Callback} was registered on this {@link Model} or on its {@link Data}
+     * @param in the source
+     */
+    public void restoreState(StateInput in) throws IOException {
+        int savedStatus = in.readInt();
+        int savedResults = in.readInt();
+        if (savedStatus < 0 || savedStatus >= Status.values().length || savedResults < 0
+                || savedResults >= Results.values().length)
+            throw new IOException("Invalid state of the model " + name);
+        status = Status.values()[savedStatus];
+        results = Results.values()[savedResults];
+        trained.set(in.readInt());
+        unfinishedShards.set(in.readInt());
+        isPublished = in.readBoolean();
+        isSentToProcessing = in.readBoolean();
+        isSentToTraining = in.readBoolean();
+        isSentToTesting = in.readBoolean();
+        data.restoreState(in);
+        if (status == Status.Trained || status == Status.Tested)
+            trainedListeners.complete();
+        if (status == Status.Tested)
+            testedListeners.complete();
+    }
+
+    /**
+     * Advances this {@link Model} to the progress of the copy of another process. Progress is never undone, and
+     * the {@link Callback}s of a status reached this way are called as usual.
+     * Must be called on the thread of the service owning this {@link Model} in this process.
+     * @param progress the progress of the other copy
+     */
+    public void applyProgress(ModelProgress progress) {
+        if (results == Results.None)
+            results = progress.getResults();
+        if (progress.isPublished())
+            isPublished = true;
+        if (progress.getStatus().compareTo(status) <= 0)
+            return;
+        if (progress.getStatus() == Status.Training)
+            setTraining();
+        if (progress.getStatus().compareTo(Status.Trained) >= 0) {
+            trained.set(data.getSize());
+            setTrained();
+        }
+        if (progress.getStatus() == Status.Tested)
+            setTested();
+    }
+
+    public String toString(){
+        return ReportText.render(this::writeTo);
+    }
+
+    /**
+     * Writes the {@link Model} in the format of the output file
+     * @param out the destination
+     */
+    public void writeTo(Appendable out) throws IOException {
+        out.append("        Name: ").append(name).append("\n");
+        out.append("        Data:\n");
+        data.writeTo(out);
     }
 }
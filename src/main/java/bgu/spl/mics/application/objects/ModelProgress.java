@@ -0,0 +1,51 @@
+package bgu.spl.mics.application.objects;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An immutable copy of the status, the results and the publication of a {@link Model}, as known to one process.
+ * Another process holding its own copy of the {@link Model} catches up with it by
+ * {@link Model#applyProgress(ModelProgress)}.
+ */
+public class ModelProgress {
+
+    private final Model.Status status;
+    private final Model.Results results;
+    private final boolean published;
+
+    private ModelProgress(Model.Status status, Model.Results results, boolean published) {
+        this.status = status;
+        this.results = results;
+        this.published = published;
+    }
+
+    Model.Status getStatus() {return status;}
+
+    Model.Results getResults() {return results;}
+
+    boolean isPublished() {return published;}
+
+    /**
+     * Writes the current progress of {@code model}, without copying it
+     * @throws java.nio.BufferOverflowException if {@code out} has no room for the progress
+     */
+    public static void write(Model model, ByteBuffer out) {
+        out.put((byte) model.getStatus().ordinal());
+        out.put((byte) model.getResults().ordinal());
+        out.put((byte) (model.isPublished() ? 1 : 0));
+    }
+
+    /**
+     * Reads a progress written by {@link #write(Model, ByteBuffer)}, without changing any {@link Model}
+     * @throws IllegalArgumentException if the progress is not valid
+     */
+    public static ModelProgress read(ByteBuffer in) {
+        int status = in.get();
+        int results = in.get();
+        boolean published = in.get() != 0;
+        if (status < 0 || status >= Model.Status.values().length || results < 0
+                || results >= Model.Results.values().length)
+            throw new IllegalArgumentException("Invalid progress of a model");
+        return new ModelProgress(Model.Status.values()[status], Model.Results.values()[results], published);
+    }
+}
@@ -0,0 +1,33 @@
+package bgu.spl.mics.application.objects;
+
+/**
+ * A policy deciding whether a {@link GPU} should pause the training of its current {@link Model}
+ * in favour of a {@link Model} waiting in its training queue.
+ * A paused {@link Model} is checkpointed and later resumes from where it stopped.
+ */
+public interface PreemptionPolicy {
+
+    /**
+     * Never pauses the training of a {@link Model}
+     */
+    PreemptionPolicy NEVER = (gpu, runningTicks, waitingTicks) -> false;
+
+    /**
+     * Decides whether a waiting {@link Model} should take the place of the running one
+     * @param gpu the {@link GPU} both {@link Model}s are queued on
+     * @param runningTicks how many more ticks the running {@link Model} needs on {@code gpu}
+     * @param waitingTicks how many ticks the waiting {@link Model} needs on {@code gpu}
+     * @return true iff the running {@link Model} should be paused
+     */
+    boolean shouldPreempt(GPU gpu, long runningTicks, long waitingTicks);
+
+    /**
+     * @pre 0 < ratio < 1, so a paused {@link Model} never pauses the {@link Model} that took its place
+     * @param ratio smaller values make preemption rarer
+     * @return a {@link PreemptionPolicy} pausing the running {@link Model} when the waiting {@link Model} needs
+     *         at most {@code ratio} times the time the running {@link Model} still needs
+     */
+    static PreemptionPolicy byRemainingRatio(double ratio) {
+        return (gpu, runningTicks, waitingTicks) -> waitingTicks <= ratio * runningTicks;
+    }
+}
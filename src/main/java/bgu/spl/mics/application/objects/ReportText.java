@@ -0,0 +1,34 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Renders the part of the report an object writes into a {@link String}, for the {@code toString} methods of
+ * the objects of the report
+ */
+final class ReportText {
+
+    /**
+     * Writes a part of the report, e.g. {@link Model#writeTo(Appendable)}
+     */
+    interface Part {
+        void writeTo(Appendable out) throws IOException;
+    }
+
+    private ReportText() {}
+
+    /**
+     * @param part the part of the report to render
+     * @return the text {@code part} writes
+     */
+    static String render(Part part) {
+        StringBuilder text = new StringBuilder();
+        try {
+            part.writeTo(text);
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc); // never thrown by a StringBuilder
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,119 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the state written by a {@link StateOutput} from a channel, through a single reusable buffer.
+ * References to {@link Model}s and {@link DataBatch}s are resolved against the {@link Model}s of the simulation
+ * being restored, which must be given in the same order they were written in.
+ */
+public class StateInput implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ReadableByteChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private List<Model> models;
+    private Map<Integer, Data> datasets = new HashMap<Integer, Data>();
+
+    /**
+     * @param channel the source
+     * @param models every {@link Model} of the simulation, in the order of the {@link StateOutput}
+     */
+    public StateInput(ReadableByteChannel channel, List<Model> models) {
+        this.channel = channel;
+        this.models = new ArrayList<Model>(models);
+        for (Model model : models)
+            datasets.put(model.getData().getId(), model.getData());
+        buffer.flip();
+    }
+
+    public int readInt() throws IOException {
+        ensure(4);
+        return buffer.getInt();
+    }
+
+    public long readLong() throws IOException {
+        ensure(8);
+        return buffer.getLong();
+    }
+
+    public boolean readBoolean() throws IOException {
+        ensure(1);
+        return buffer.get() != 0;
+    }
+
+    public String readString() throws IOException {
+        byte[] bytes = new byte[readInt()];
+        int read = 0;
+        while (read < bytes.length) {
+            ensure(1);
+            int chunk = Math.min(buffer.remaining(), bytes.length - read);
+            buffer.get(bytes, read, chunk);
+            read += chunk;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public long[] readLongs() throws IOException {
+        long[] values = new long[readInt()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = readLong();
+        return values;
+    }
+
+    /**
+     * @return the {@link Model} written by {@link StateOutput#writeModel(Model)}, or null
+     */
+    public Model readModel() throws IOException {
+        int index = readInt();
+        if (index == -1)
+            return null;
+        if (index < 0 || index >= models.size())
+            throw new IOException("The snapshot refers to a Model that does not exist in the simulation");
+        return models.get(index);
+    }
+
+    /**
+     * @return the handle written by {@link StateOutput#writeHandle(long)}, in terms of the restored {@link Data}s
+     */
+    public long readHandle() throws IOException {
+        int index = readInt();
+        if (index < 0 || index >= models.size())
+            throw new IOException("The snapshot refers to a Model that does not exist in the simulation");
+        return DataBatch.handle(models.get(index).getData().getId(), readInt());
+    }
+
+    /**
+     * @param handle a handle returned by {@link #readHandle()}
+     * @return the restored {@link Data} the batch belongs to
+     */
+    public Data dataOf(long handle) {
+        return datasets.get(DataBatch.dataIdOf(handle));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes)
+            return;
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) == -1)
+                throw new EOFException("The snapshot ended unexpectedly");
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,116 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the state of the objects of a simulation to a channel, through a single reusable buffer.
+ * <p>
+ * {@link Model}s, and the {@link DataBatch}s of their {@link Data}, are written by their index in a fixed list of
+ * all the {@link Model}s of the simulation, since the ids of {@link Data}s differ between runs.
+ * @see StateInput
+ */
+public class StateOutput implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private WritableByteChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private Map<Model, Integer> modelIndices = new IdentityHashMap<Model, Integer>();
+    private Map<Integer, Integer> dataIndices = new HashMap<Integer, Integer>();
+
+    /**
+     * @param channel the destination
+     * @param models every {@link Model} of the simulation, in a fixed order
+     */
+    public StateOutput(WritableByteChannel channel, List<Model> models) {
+        this.channel = channel;
+        int index = 0;
+        for (Model model : models) {
+            modelIndices.put(model, index);
+            dataIndices.put(model.getData().getId(), index);
+            index++;
+        }
+    }
+
+    public void writeInt(int value) throws IOException {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        ensure(1);
+        buffer.put((byte) (value ? 1 : 0));
+    }
+
+    public void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        int written = 0;
+        while (written < bytes.length) {
+            ensure(1);
+            int chunk = Math.min(buffer.remaining(), bytes.length - written);
+            buffer.put(bytes, written, chunk);
+            written += chunk;
+        }
+    }
+
+    public void writeLongs(long[] values) throws IOException {
+        writeInt(values.length);
+        for (long value : values)
+            writeLong(value);
+    }
+
+    /**
+     * Writes a reference to a {@link Model} of the simulation
+     * @param model the {@link Model}, or null
+     */
+    public void writeModel(Model model) throws IOException {
+        Integer index = model == null ? null : modelIndices.get(model);
+        writeInt(index == null ? -1 : index);
+    }
+
+    /**
+     * Writes a packed {@link DataBatch} handle, as the index of its {@link Model} and the index of the batch
+     */
+    public void writeHandle(long handle) throws IOException {
+        Integer index = dataIndices.get(DataBatch.dataIdOf(handle));
+        if (index == null)
+            throw new IOException("The batch belongs to a Data of no Model in the simulation");
+        writeInt(index);
+        writeInt(DataBatch.indexOf(handle));
+    }
+
+    /**
+     * Writes the buffered bytes to the channel
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes)
+            flush();
+    }
+}
@@ -1,8 +1,6 @@
 package bgu.spl.mics.application.objects;
 
-import com.sun.org.apache.xpath.internal.operations.Mod;
-import sun.awt.image.ImageWatched;
-
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.concurrent.ConcurrentLinkedDeque;
@@ -25,6 +23,7 @@ public class Student {
     private ConcurrentLinkedDeque<Model> models = new ConcurrentLinkedDeque<Model>();
     private int publications = 0;
     private int papersRead = 0;
+    private int modelsInFlight = 1;
 
     /**
      * Constructs a "fresh" (haven't yet read or published any papers) student of a specified degree
@@ -61,6 +60,23 @@ public class Student {
         }
     }
 
+    /**
+     * @return the {@link Model}s of the {@link Student}, in the order they should be worked on
+     */
+    public ConcurrentLinkedDeque<Model> getModels() {return models;}
+
+    /**
+     * @return how many {@link Model}s the {@link Student} works on at the same time
+     */
+    public int getModelsInFlight() {return modelsInFlight;}
+
+    /**
+     * Sets how many {@link Model}s the {@link Student} works on at the same time, each in its own stage of
+     * processing, training or testing
+     * @param modelsInFlight the number of concurrent {@link Model}s, at least 1
+     */
+    public void setModelsInFlight(int modelsInFlight) {this.modelsInFlight = Math.max(1, modelsInFlight);}
+
     public void setModels(ConcurrentLinkedDeque<Model> models) {
         if (models != null) {
             this.models = models;
@@ -80,26 +96,67 @@ public class Student {
 
     public void readPaper() {papersRead++;}
 
+    /**
+     * Adds {@code amount} publications of {@link Model}s which were already marked as published
+     */
+    public void addPublications(int amount) {publications += amount;}
+
+    public void readPapers(int amount) {papersRead += amount;}
+
+    /**
+     * Writes the publications and read papers of the {@link Student}, followed by the progress of each of its
+     * {@link Model}s, in order
+     * @param out the destination
+     */
+    public void saveState(StateOutput out) throws IOException {
+        out.writeInt(publications);
+        out.writeInt(papersRead);
+        out.writeInt(models.size());
+        for (Model model : models)
+            model.saveState(out);
+    }
+
+    /**
+     * Replaces the progress of the {@link Student} and of its {@link Model}s with the one written by
+     * {@link #saveState(StateOutput)}
+     * @pre the {@link Student} has the same {@link Model}s, in the same order, as the saved one
+     * @param in the source
+     */
+    public void restoreState(StateInput in) throws IOException {
+        publications = in.readInt();
+        papersRead = in.readInt();
+        if (in.readInt() != models.size())
+            throw new IOException("The snapshot has a different number of models for the student " + name);
+        for (Model model : models)
+            model.restoreState(in);
+    }
+
     public String toString() {
-        String s = "";
-        s += "    Name: " + name + "\n";
-        s += "    Department: " + department + "\n";
-        s += "    Status: " + statusToString() + "\n";
-        s += "    Number of publications: " + publications + "\n";
-        s += "    Number of papers read: " + papersRead + "\n";
-        s += "    Models trained: " + "\n";
+        return ReportText.render(this::writeTo);
+    }
+
+    /**
+     * Writes the {@link Student} and its trained {@link Model}s in the format of the output file
+     * @param out the destination
+     */
+    public void writeTo(Appendable out) throws IOException {
+        out.append("    Name: ").append(name).append("\n");
+        out.append("    Department: ").append(department).append("\n");
+        out.append("    Status: ").append(statusToString()).append("\n");
+        out.append("    Number of publications: ").append(String.valueOf(publications)).append("\n");
+        out.append("    Number of papers read: ").append(String.valueOf(papersRead)).append("\n");
+        out.append("    Models trained: ").append("\n");
         for (Model model : models) {
             if (model.isTrained() || model.isTested()) {
-                s += model.toString();
+                model.writeTo(out);
                 if (model.isPublished()) {
-                    s += "        This model was published\n";
+                    out.append("        This model was published\n");
                 }
             }
         }
-        return s;
     }
 
-    private String statusToString() {
+    public String statusToString() {
         if (status == Degree.MSc)
             return "MSc";
         return "PhD";
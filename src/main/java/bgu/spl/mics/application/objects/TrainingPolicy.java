@@ -0,0 +1,53 @@
+package bgu.spl.mics.application.objects;
+
+/**
+ * A policy deciding the order in which the {@link Model}s queued for training on a {@link GPU} are trained.
+ * {@link Model}s the policy considers equal are trained in the order they were queued.
+ */
+public interface TrainingPolicy {
+
+    /**
+     * Trains the {@link Model}s in the order they were queued
+     */
+    TrainingPolicy FIFO = (gpu, first, second) -> 0;
+
+    /**
+     * Trains the {@link Model} which takes the shortest time to train on the {@link GPU} first
+     */
+    TrainingPolicy SHORTEST_JOB_FIRST = (gpu, first, second) ->
+            Integer.compare(gpu.timeToTrain(first), gpu.timeToTrain(second));
+
+    /**
+     * Trains the {@link Model}s of {@code PhD} students before the {@link Model}s of {@code MSc} students
+     */
+    TrainingPolicy DEGREE_PRIORITY = (gpu, first, second) ->
+            Integer.compare(priority(first), priority(second));
+
+    /**
+     * Compares two {@link Model}s queued on {@code gpu}
+     * @param gpu the {@link GPU} the {@link Model}s are queued on
+     * @param first the first {@link Model} to compare
+     * @param second the second {@link Model} to compare
+     * @return a negative number if {@code first} should be trained before {@code second}, a positive number if
+     *         {@code second} should be trained first, or zero if they should be trained in the order they were queued
+     */
+    int compare(GPU gpu, Model first, Model second);
+
+    /**
+     * @param name one of "FIFO", "SJF" or "Priority"
+     * @return the {@link TrainingPolicy} with the given name, or {@link #FIFO} if there is no such policy
+     */
+    static TrainingPolicy fromString(String name) {
+        if (name.equals("SJF"))
+            return SHORTEST_JOB_FIRST;
+        if (name.equals("Priority"))
+            return DEGREE_PRIORITY;
+        return FIFO;
+    }
+
+    static int priority(Model model) {
+        if (model.getStudent().getStatus() == Student.Degree.PhD)
+            return 0;
+        return 1;
+    }
+}
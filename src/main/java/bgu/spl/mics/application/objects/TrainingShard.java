@@ -0,0 +1,157 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.IOException;
+
+/**
+ * A contiguous range of the {@link DataBatch}s of a {@link Model}'s {@link Data}, trained by a single {@link GPU}.
+ * A {@link Model} trained on a single {@link GPU} has one shard covering all of its batches, while a {@link Model}
+ * trained in data-parallel mode is split into a shard per {@link GPU}.
+ * @inv from <= nextToLoad <= to && trainedBatches <= nextToLoad - from
+ */
+class TrainingShard {
+
+    private Model model;
+    private int from;
+    private int to;
+    private int nextToLoad;
+    private int trainedBatches = 0;
+    private int unsyncedBatches = 0;
+    private long[] checkpointHandles = null; // the batches that were in the VRAM when the shard was preempted
+    private int[] checkpointDelays = null; // how many ticks each of those batches still needed
+
+    /**
+     * @param model the {@link Model} the shard belongs to
+     * @param from the index of the first batch of the shard
+     * @param to the index following the last batch of the shard
+     */
+    TrainingShard(Model model, int from, int to) {
+        this.model = model;
+        this.from = from;
+        this.to = to;
+        this.nextToLoad = from;
+    }
+
+    Model getModel() {return model;}
+
+    int getFrom() {return from;}
+
+    int getTo() {return to;}
+
+    /**
+     * @return the number of batches in the shard
+     */
+    int size() {return to - from;}
+
+    int getTrainedBatches() {return trainedBatches;}
+
+    int getRemainingBatches() {return size() - trainedBatches;}
+
+    boolean isDone() {return trainedBatches >= size();}
+
+    /**
+     * @return true iff some batches of the shard were not loaded to the VRAM yet
+     */
+    boolean hasNextToLoad() {return nextToLoad < to;}
+
+    /**
+     * @return the index of the next batch to be loaded to the VRAM
+     */
+    int getNextToLoad() {return nextToLoad;}
+
+    /**
+     * @return the handle of the next batch to be loaded to the VRAM, advancing the loading cursor
+     */
+    long nextHandle() {
+        long handle = DataBatch.handle(model.getData().getId(), nextToLoad);
+        nextToLoad++;
+        return handle;
+    }
+
+    /**
+     * Records a single trained batch of the shard
+     */
+    void batchTrained() {
+        trainedBatches++;
+        unsyncedBatches++;
+    }
+
+    int getUnsyncedBatches() {return unsyncedBatches;}
+
+    /**
+     * Saves the state of the VRAM of a {@link GPU} that paused the training of this shard.
+     * The training and loading cursors of the shard are kept as they are, so no batch is trained twice.
+     * @param handles the batches that were loaded to the VRAM, in order
+     * @param delays how many ticks each of the loaded batches still needed to be trained
+     */
+    void checkpoint(long[] handles, int[] delays) {
+        checkpointHandles = handles;
+        checkpointDelays = delays;
+    }
+
+    boolean hasCheckpoint() {return checkpointHandles != null;}
+
+    long[] getCheckpointHandles() {return checkpointHandles;}
+
+    int[] getCheckpointDelays() {return checkpointDelays;}
+
+    void clearCheckpoint() {
+        checkpointHandles = null;
+        checkpointDelays = null;
+    }
+
+    /**
+     * Writes the shard, including its checkpoint
+     * @param out the destination
+     */
+    void saveState(StateOutput out) throws IOException {
+        out.writeModel(model);
+        out.writeInt(from);
+        out.writeInt(to);
+        out.writeInt(nextToLoad);
+        out.writeInt(trainedBatches);
+        out.writeInt(unsyncedBatches);
+        out.writeBoolean(hasCheckpoint());
+        if (hasCheckpoint()) {
+            out.writeInt(checkpointHandles.length);
+            for (int i = 0; i < checkpointHandles.length; i++) {
+                out.writeHandle(checkpointHandles[i]);
+                out.writeInt(checkpointDelays[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a shard written by {@link #saveState(StateOutput)}
+     * @param in the source
+     * @return the restored shard
+     */
+    static TrainingShard restoreState(StateInput in) throws IOException {
+        Model model = in.readModel();
+        if (model == null)
+            throw new IOException("A training shard of the snapshot has no model");
+        TrainingShard shard = new TrainingShard(model, in.readInt(), in.readInt());
+        shard.nextToLoad = in.readInt();
+        shard.trainedBatches = in.readInt();
+        shard.unsyncedBatches = in.readInt();
+        if (in.readBoolean()) {
+            long[] handles = new long[in.readInt()];
+            int[] delays = new int[handles.length];
+            for (int i = 0; i < handles.length; i++) {
+                handles[i] = in.readHandle();
+                delays[i] = in.readInt();
+            }
+            shard.checkpoint(handles, delays);
+        }
+        return shard;
+    }
+
+    /**
+     * Adds the samples of the batches trained since the last synchronization to the {@link Model}
+     */
+    void sync() {
+        if (unsyncedBatches > 0) {
+            model.addTrained(unsyncedBatches * Data.BATCH_SIZE);
+            unsyncedBatches = 0;
+        }
+    }
+}
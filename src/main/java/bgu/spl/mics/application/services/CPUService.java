@@ -1,6 +1,5 @@
 package bgu.spl.mics.application.services;
 
-import bgu.spl.mics.MicroService;
 import bgu.spl.mics.application.messages.TerminatorBroadcast;
 import bgu.spl.mics.application.messages.TickBroadcast;
 import bgu.spl.mics.application.objects.CPU;
@@ -12,7 +11,7 @@ import bgu.spl.mics.application.objects.CPU;
  * You can add private fields and public methods to this class.
  * You MAY change constructor signatures and even add new public constructors.
  */
-public class CPUService extends MicroService {
+public class CPUService extends ManagedService {
 
     private CPU cpu;
 
@@ -26,7 +25,7 @@ public class CPUService extends MicroService {
     }
 
     @Override
-    protected void initialize() {
+    protected void subscribe() {
         subscribeBroadcast(TickBroadcast.class, c -> {
             cpu.tick();
         });
@@ -1,7 +1,6 @@
 package bgu.spl.mics.application.services;
 
 import bgu.spl.mics.Callback;
-import bgu.spl.mics.MicroService;
 import bgu.spl.mics.application.messages.PublishConferenceBroadcast;
 import bgu.spl.mics.application.messages.PublishResultsEvent;
 import bgu.spl.mics.application.messages.TerminatorBroadcast;
@@ -20,7 +19,7 @@ import java.util.LinkedList;
  * You can add private fields and public methods to this class.
  * You MAY change constructor signatures and even add new public constructors.
  */
-public class ConferenceService extends MicroService {
+public class ConferenceService extends ManagedService {
 
     private ConfrenceInformation conf;
 
@@ -34,7 +33,10 @@ public class ConferenceService extends MicroService {
     }
 
     @Override
-    protected void initialize() {
+    protected boolean handlesEvents() {return true;}
+
+    @Override
+    protected void subscribe() {
         subscribeBroadcast(TickBroadcast.class, c -> {tickReact(c);});
         subscribeBroadcast(TerminatorBroadcast.class, c -> {terminate();});
         subscribeEvent(PublishResultsEvent.class, c -> {publishReact(c);});
@@ -48,11 +50,14 @@ public class ConferenceService extends MicroService {
     }
 
     private void publishReact(PublishResultsEvent event) {
+        event.applyProgress();
         Model model = event.getModel();
         if (model.isGood()) {
             conf.addModel(model);
             model.publish();
         }
+        complete(event, model);
+        event.completed(model);
 
     }
 
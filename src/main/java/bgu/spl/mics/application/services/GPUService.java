@@ -1,7 +1,6 @@
 package bgu.spl.mics.application.services;
 
 import bgu.spl.mics.Event;
-import bgu.spl.mics.MicroService;
 import bgu.spl.mics.application.messages.*;
 import bgu.spl.mics.application.objects.GPU;
 import bgu.spl.mics.application.objects.Model;
@@ -11,6 +10,10 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * GPU service is responsible for handling the
@@ -21,10 +24,13 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * You can add private fields and public methods to this class.
  * You MAY change constructor signatures and even add new public constructors.
  */
-public class GPUService extends MicroService {
+public class GPUService extends ManagedService {
 
     private GPU gpu;
     private ConcurrentLinkedQueue<TrainModelEvent> events = new ConcurrentLinkedQueue<TrainModelEvent>();
+    // Tests run on their own single thread, so they never delay the handling of the ticks that drive the training
+    private ExecutorService testLane;
+    private static final long TEST_LANE_SHUTDOWN_TIMEOUT = 1000; // in milliseconds
 
     public GPUService(String name) {
         super(name);
@@ -37,7 +43,19 @@ public class GPUService extends MicroService {
 
 
     @Override
-    protected void initialize() {
+    protected void prepare() {
+        testLane = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, getName() + " Test Lane");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    protected boolean handlesEvents() {return true;}
+
+    @Override
+    protected void subscribe() {
         subscribeBroadcast(TickBroadcast.class, c -> {tickReact();});
         subscribeBroadcast(TerminatorBroadcast.class, c -> {terminateReact();});
         subscribeEvent(ProcessModelEvent.class, c -> {processModelReact(c);});
@@ -49,13 +67,37 @@ public class GPUService extends MicroService {
         gpu.tick();
     }
 
+    /**
+     * Waits for the tests already handed to the test lane
+     */
+    @Override
+    protected void quiesce() {
+        try {
+            testLane.submit(() -> {}).get();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException exc) {
+            throw new IllegalStateException("The test lane of " + getName() + " failed", exc);
+        }
+    }
+
+    /**
+     * Lets the tests already handed to the test lane finish, so their models are complete in the report
+     */
     private void terminateReact() {
+        testLane.shutdown();
+        try {
+            testLane.awaitTermination(TEST_LANE_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
         terminate();
     }
 
 
     private void processModelReact(ProcessModelEvent event) {
         Model model = event.getModel();
+        model.getData().onProcessed(d -> {completeModelEvent(event, model);});
         gpu.startProcessing(model);
     }
 
@@ -63,11 +105,26 @@ public class GPUService extends MicroService {
         Model model = event.getModel();
         events.add(event);
         model.sendToTraining();
-        gpu.startTraining(model);
+        model.onTrained(m -> {completeModelEvent(event, m);});
+        // The cluster decides which GPU trains the model, this GPU only trains it if the cluster has no GPUs
+        if (gpu.getCluster().submitTraining(model) == null)
+            gpu.startTraining(model);
     }
 
     private void testModelReact(TestModelEvent event) {
         Model model = event.getModel();
-        gpu.testModel(model);
+        testLane.execute(() -> {
+            gpu.testModel(model);
+            completeModelEvent(event, model);
+        });
+    }
+
+    /**
+     * Resolves the {@link bgu.spl.mics.Future} of {@code event} and runs its continuations.
+     * Called by the thread that finished the work, which is not necessarily the thread of this service.
+     */
+    private void completeModelEvent(ModelEvent event, Model model) {
+        complete(event, model);
+        event.completed(model);
     }
 }
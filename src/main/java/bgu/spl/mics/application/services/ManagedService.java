@@ -0,0 +1,79 @@
+package bgu.spl.mics.application.services;
+
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.messages.CheckpointBroadcast;
+
+/**
+ * A {@link MicroService} of a run, which can take part in a {@link StartupBarrier}.
+ * Its initialization is split into {@link #prepare()}, which runs in parallel with the other services, and
+ * {@link #subscribe()}, which runs in the turn of the service on the barrier if it {@link #handlesEvents()},
+ * or in parallel with the other services that do not, once the event handlers subscribed.
+ * <p>
+ * Every managed service also takes part in the checkpoints of the run, see {@link CheckpointBroadcast}.
+ */
+public abstract class ManagedService extends MicroService {
+
+    private StartupBarrier barrier = null;
+    private int startupOrder = 0;
+
+    public ManagedService(String name) {
+        super(name);
+    }
+
+    /**
+     * Makes the service take part in {@code barrier}, the services of a run join it in a fixed order
+     * @pre the service was not started yet
+     * @param barrier the {@link StartupBarrier} of the run
+     */
+    public void joinStartup(StartupBarrier barrier) {
+        this.barrier = barrier;
+        this.startupOrder = barrier.join(handlesEvents());
+    }
+
+    @Override
+    protected final void initialize() {
+        prepare();
+        if (barrier == null) {
+            subscribeAll();
+            return;
+        }
+        try {
+            barrier.awaitTurn(startupOrder);
+            subscribeAll();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            subscribeAll();
+        } finally {
+            barrier.ready(startupOrder);
+        }
+    }
+
+    private void subscribeAll() {
+        subscribe();
+        subscribeBroadcast(CheckpointBroadcast.class, c -> {
+            quiesce();
+            c.arrive();
+        });
+    }
+
+    /**
+     * Prepares the resources of the service, without touching the message-bus
+     */
+    protected void prepare() {}
+
+    /**
+     * Subscribes the service to the messages it handles
+     */
+    protected abstract void subscribe();
+
+    /**
+     * @return true iff {@link #subscribe()} subscribes to events, so the service subscribes in its turn
+     */
+    protected boolean handlesEvents() {return false;}
+
+    /**
+     * Finishes the work the service handed to other threads, so its objects do not change while a snapshot of
+     * the run is written
+     */
+    protected void quiesce() {}
+}
@@ -0,0 +1,103 @@
+package bgu.spl.mics.application.services;
+
+/**
+ * Coordinates the startup of the services of a run.
+ * <p>
+ * The services prepare themselves in parallel, each on its own thread. Only the services handling events
+ * subscribe one at a time, in the order they joined the startup: the message-bus hands events to their subscribers
+ * in the order of subscription, so a fixed order of the event subscriptions keeps runs deterministic.
+ * Every other service subscribes in parallel once the event handlers did, since it may send events as soon as it
+ * subscribed. The clock waits on the barrier and only sends the first tick once every service subscribed.
+ * @inv 0 <= getReadyServices() <= parties
+ */
+public class StartupBarrier {
+
+    /**
+     * The order of a service that does not subscribe in turn
+     */
+    static final int UNORDERED = -1;
+
+    private final int parties;
+    private int joined = 0;
+    private int turns = 0; // the number of services that joined to subscribe in turn
+    private int turnsDone = 0; // the number of services that subscribed in turn
+    private int ready = 0;
+    private final Object lock = new Object();
+
+    /**
+     * @param parties the number of services taking part in the startup
+     */
+    public StartupBarrier(int parties) {
+        this.parties = parties;
+    }
+
+    public int getParties() {return parties;}
+
+    public int getReadyServices() {
+        synchronized (lock) {
+            return ready;
+        }
+    }
+
+    /**
+     * Adds a service to the startup, the services must join in a fixed order
+     * @param inTurn whether the service subscribes to events, and therefore in turn
+     * @return the order of the service among the services subscribing in turn, starting from 0,
+     *         or {@link #UNORDERED} if the service does not subscribe in turn
+     */
+    int join(boolean inTurn) {
+        synchronized (lock) {
+            joined++;
+            return inTurn ? turns++ : UNORDERED;
+        }
+    }
+
+    /**
+     * Blocks until the calling service may subscribe: a service with an order waits for every service that took
+     * its turn before it, a service without an order waits until every party joined and every turn was taken
+     * @param order the order {@link #join(boolean)} returned to the calling service
+     */
+    void awaitTurn(int order) throws InterruptedException {
+        synchronized (lock) {
+            if (order == UNORDERED) {
+                while (joined < parties || turnsDone < turns)
+                    lock.wait();
+            }
+            else {
+                while (turnsDone < order)
+                    lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Marks the calling service as subscribed, letting the next service in turn subscribe
+     * @pre the calling service returned from {@link #awaitTurn(int)}
+     * @param order the order {@link #join(boolean)} returned to the calling service
+     */
+    void ready(int order) {
+        synchronized (lock) {
+            ready++;
+            if (order != UNORDERED)
+                turnsDone = Math.max(turnsDone, order + 1);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until every service subscribed, or until the timeout elapsed
+     * @param timeout the maximal time to wait, in milliseconds
+     * @return true iff every service subscribed
+     */
+    public boolean awaitAll(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (lock) {
+            long remaining = timeout;
+            while (ready < parties && remaining > 0) {
+                lock.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return ready >= parties;
+        }
+    }
+}
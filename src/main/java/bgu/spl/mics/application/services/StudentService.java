@@ -2,15 +2,16 @@ package bgu.spl.mics.application.services;
 
 import bgu.spl.mics.Callback;
 import bgu.spl.mics.Future;
-import bgu.spl.mics.MicroService;
 import bgu.spl.mics.application.messages.*;
 import bgu.spl.mics.application.objects.Model;
 import bgu.spl.mics.application.objects.Student;
 
 import javax.smartcardio.TerminalFactory;
 import java.awt.*;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Student is responsible for sending the {@link TrainModelEvent},
@@ -21,9 +22,23 @@ import java.util.LinkedList;
  * You can add private fields and public methods to this class.
  * You MAY change constructor signatures and even add new public constructors.
  */
-public class StudentService extends MicroService {
+public class StudentService extends ManagedService {
+
+    /**
+     * The stage of a single {@link Model} of the {@link Student}
+     */
+    private enum Stage {Waiting, Processing, Training, Testing, Retired}
 
     private Student student;
+    private boolean started = false;
+    // The models which were not started yet, in the order of the student
+    private LinkedList<Model> waiting = new LinkedList<Model>();
+    private HashMap<Model, Stage> stages = new HashMap<Model, Stage>();
+    private int inFlight = 0;
+    // The stages completed on other threads, advanced on the thread of the service once it is woken up. The
+    // threads completing the events only take the queue and the locks of the message-bus, which never call out
+    private ConcurrentLinkedQueue<Completion> completed = new ConcurrentLinkedQueue<Completion>();
+    private AtomicBoolean wakeUpPending = new AtomicBoolean(false);
 
     public StudentService(String name) {
         super(name);
@@ -35,10 +50,12 @@ public class StudentService extends MicroService {
     }
 
     @Override
-    protected void initialize() {
+    protected void subscribe() {
         subscribeBroadcast(TickBroadcast.class, c -> {tickReact();});
         subscribeBroadcast(TerminatorBroadcast.class, c -> {terminate();});
         subscribeBroadcast(PublishConferenceBroadcast.class, c -> {conferenceReact(c);});
+        subscribeBroadcast(StageCompletedBroadcast.class, c -> {advanceCompleted();});
+        resumeModels();
     }
 
     private void tickReact() {
@@ -46,54 +63,186 @@ public class StudentService extends MicroService {
     }
 
     /**
-     * Runs every tick, check the {@link Model.Status} of the current{@Link Model} and calls
-     * the corresponding {@link} event
+     * Starts working on the first waiting {@link Model}s of the {@link Student} in the first tick.
+     * From then on every {@link Model} advances as soon as the event of its current {@link Stage} is completed,
+     * so later ticks do nothing.
      */
-
-
     private void workOnModels() {
-        Model model = student.getCurrentModel();
-        if (!model.isPublished()) {
+        if (!started) {
+            started = true;
+            startWaitingModels();
+        }
+    }
+
+    /**
+     * Sets the {@link Stage} of every {@link Model} of the {@link Student} from its progress, before the clock starts.
+     * In a new run every {@link Model} is waiting. In a run restored from a snapshot the continuations of the
+     * events sent before the snapshot are gone, so a {@link Model} whose work is under way continues once its
+     * {@link bgu.spl.mics.application.objects.Data} is processed or once it is trained, and the event of a
+     * {@link Model} whose work was not picked up by any service is sent again.
+     */
+    private void resumeModels() {
+        for (Model model : student.getModels()) {
             if (model.isTested()) {
-                if (model.isGood()) {
+                stages.put(model, Stage.Retired);
+                if (model.isGood() && !model.isPublished())
                     sendEvent(new PublishResultsEvent(model));
-                    student.nextModel();
-                }
             }
-            else if (model.isTrained() && !model.isSentToTesting()) {
-                    model.sendToTesting();
-                    sendEvent(new TestModelEvent(model));
-                }
-            else if (model.isTraining()) {}
-            else if (model.isPreTrained()) {
-                if (!model.isSentToProcessing()) {
-                    model.sendToProcessing();
-                    sendEvent(new ProcessModelEvent(model));
+            else if (model.isTrained()) {
+                inFlight++;
+                sendStageEvent(model, Stage.Testing, new TestModelEvent(model));
+            }
+            else if (model.isSentToTraining()) {
+                inFlight++;
+                if (model.isQueuedForTraining()) {
+                    stages.put(model, Stage.Training);
+                    model.onTrained(m -> {stageCompleted(new Completion(m, Stage.Training, null));});
                 }
-                else if (model.getData().isProcessed()) {
-                    model.sendToTraining();
-                    sendEvent(new TrainModelEvent(model));
+                else
+                    sendStageEvent(model, Stage.Training, new TrainModelEvent(model));
+            }
+            else if (model.isSentToProcessing()) {
+                inFlight++;
+                if (model.getData().isDispatched()) {
+                    stages.put(model, Stage.Processing);
+                    model.getData().onProcessed(d -> {stageCompleted(new Completion(model, Stage.Processing, null));});
                 }
+                else
+                    sendStageEvent(model, Stage.Processing, new ProcessModelEvent(model));
+            }
+            else {
+                stages.put(model, Stage.Waiting);
+                waiting.addLast(model);
             }
         }
     }
 
     /**
-     * goes over every {@link Model} which was received by the conference and aggregates the number of
-     * papers read and published
+     * Starts the waiting {@link Model}s, in order, until {@link Student#getModelsInFlight()} {@link Model}s are
+     * in flight
+     */
+    private void startWaitingModels() {
+        while (inFlight < student.getModelsInFlight() && !waiting.isEmpty())
+            startModel(waiting.removeFirst());
+    }
+
+    /**
+     * Sends the {@link ProcessModelEvent} of a {@link Model} which was not handled yet.
+     * A {@link Model} which was already handled elsewhere retires immediately.
+     * @param model the {@link Model} to work on
+     */
+    private void startModel(Model model) {
+        if (!model.isPublished() && model.isPreTrained() && !model.isSentToProcessing()) {
+            inFlight++;
+            model.sendToProcessing();
+            sendStageEvent(model, Stage.Processing, new ProcessModelEvent(model));
+        }
+        else
+            stages.put(model, Stage.Retired);
+    }
+
+    /**
+     * Moves a {@link Model} to {@code stage} and sends the event of the stage. The continuation of the event only
+     * queues the completion, the {@link Model} advances on the thread of this service.
+     */
+    private void sendStageEvent(Model model, Stage stage, ModelEvent event) {
+        stages.put(model, stage);
+        sendEvent(event.then(m -> {stageCompleted(new Completion(model, stage, event));}));
+    }
+
+    /**
+     * Queues a completed {@link Stage} and wakes up the service, unless it was already woken up and did not
+     * handle the queue yet. Runs on the thread that completed the event.
+     */
+    private void stageCompleted(Completion completion) {
+        completed.add(completion);
+        if (wakeUpPending.compareAndSet(false, true))
+            sendBroadcast(new StageCompletedBroadcast(this));
+    }
+
+    /**
+     * Advances every {@link Model} whose {@link Stage} was completed since the service was last woken up
+     */
+    private void advanceCompleted() {
+        wakeUpPending.set(false);
+        Completion completion = completed.poll();
+        while (completion != null) {
+            advanceModel(completion);
+            completion = completed.poll();
+        }
+    }
+
+    /**
+     * Moves a {@link Model} whose current {@link Stage} was completed to its next {@link Stage}, sending the
+     * corresponding event. A tested {@link Model} retires: a good one is published first, a bad one is dropped.
+     * Every retirement makes room for the next waiting {@link Model}.
+     * A completion of a {@link Stage} the {@link Model} is no longer in is ignored. An event completed by another
+     * process first brings the {@link Model} up to its progress there, and a {@link Model} whose event could not be
+     * handled there retires.
+     * @param completion the {@link Model} that was processed, trained or tested, and the completed {@link Stage}
+     */
+    private void advanceModel(Completion completion) {
+        Model model = completion.model;
+        if (stages.get(model) != completion.stage)
+            return;
+        if (completion.event != null) {
+            completion.event.applyProgress();
+            if (completion.event.getResult() == null) {
+                retire(model);
+                return;
+            }
+        }
+        switch (completion.stage) {
+            case Processing:
+                model.sendToTraining();
+                sendStageEvent(model, Stage.Training, new TrainModelEvent(model));
+                break;
+            case Training:
+                model.sendToTesting();
+                sendStageEvent(model, Stage.Testing, new TestModelEvent(model));
+                break;
+            case Testing:
+                if (model.isGood())
+                    sendEvent(new PublishResultsEvent(model));
+                retire(model);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void retire(Model model) {
+        stages.put(model, Stage.Retired);
+        inFlight--;
+        startWaitingModels();
+    }
+
+    /**
+     * Adds the number of papers published and read by the {@link Student} in a conference, taken from the
+     * digest the conference prepared for this {@link Student}
      * @param c the {@link PublishConferenceBroadcast} sent by one Conference to which
      *  the {@link Student} is subscribed
      */
 
     private void conferenceReact(PublishConferenceBroadcast c) {
-        LinkedList<Model> models = c.getModels();
-        Iterator<Model> iter = models.iterator();
-        while(iter.hasNext()) {
-            Model current = iter.next();
-            if (student.equals(current.getStudent()))
-                student.publishResults(current);
-            else
-                student.readPaper();
+        PublishConferenceBroadcast.Digest digest = c.getDigest(student);
+        student.addPublications(digest.getPublications());
+        student.readPapers(digest.getPapersRead());
+    }
+
+    /**
+     * A {@link Stage} of a {@link Model} completed on another thread
+     */
+    private static class Completion {
+
+        private final Model model;
+        private final Stage stage;
+        private final ModelEvent event; // the completed event, or null if the stage was awaited on the model
+
+        Completion(Model model, Stage stage, ModelEvent event) {
+            this.model = model;
+            this.stage = stage;
+            this.event = event;
         }
     }
 }
@@ -7,6 +7,9 @@ import bgu.spl.mics.application.messages.*;
 
 import javax.security.auth.kerberos.KerberosTicket;
 import java.util.Timer;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
 /**
  * TimeService is the global system timer There is only one instance of this micro-service.
@@ -22,6 +25,15 @@ public class TimeService extends MicroService{
 	private int speed; // The time each tick takes in milliseconds
 	private int duration; // The number of ticks before termination
 	private int counter = 1;
+	private int firstTick = 1;
+	private long startTime; // in nanoseconds, the ticks are scheduled against it so sleeping late does not add up
+	private int checkpointInterval = 0; // in ticks, 0 means no checkpoints are taken
+	private Phaser checkpointPhaser;
+	private Callback<Integer> checkpointWriter;
+	private LongSupplier sentMessages; // the number of events and broadcasts sent on the bus of the run so far
+	// Each round lets the services handle the messages caused by the previous one: the tick, the events sent when
+	// it was handled, and the events sent once those were handled. A checkpoint that needed more rounds is not written
+	private static final int CHECKPOINT_ROUNDS = 3;
 
 	public TimeService(int speed, int duration){
 		super("Time Service");
@@ -37,8 +49,38 @@ public class TimeService extends MicroService{
 
 	public boolean isTimeOver() {return counter >= duration;}
 
+	/**
+	 * Makes the clock start from a given tick, instead of the first one, e.g. when a run is restored from a snapshot
+	 * @pre the clock was not started yet && tick >= 1
+	 * @param tick the first tick to send
+	 */
+	public void setFirstTick(int tick) {
+		this.firstTick = Math.max(1, tick);
+		this.counter = this.firstTick;
+	}
+
+	/**
+	 * Makes the clock take a checkpoint every {@code interval} ticks, see {@link CheckpointBroadcast}.
+	 * Once every service is quiescent, {@code writer} is called on the clock's thread with the last handled tick,
+	 * and the services stay blocked until it returns.
+	 * If a message other than the last round was sent while the last round was handled, some service was not
+	 * quiescent yet, the error is reported and {@code writer} is not called.
+	 * @pre the clock was not started yet
+	 * @param interval the number of ticks between checkpoints, 0 disables the checkpoints
+	 * @param phaser the {@link Phaser} of the run, with the clock and every running service as parties
+	 * @param sentMessages the number of events and broadcasts sent on the bus of the run so far
+	 * @param writer writes the snapshot of the run
+	 */
+	public void setCheckpoints(int interval, Phaser phaser, LongSupplier sentMessages, Callback<Integer> writer) {
+		this.checkpointInterval = Math.max(0, interval);
+		this.checkpointPhaser = phaser;
+		this.sentMessages = sentMessages;
+		this.checkpointWriter = writer;
+	}
+
 	@Override
 	protected void initialize() {
+		startTime = System.nanoTime();
 		subscribeBroadcast(TickBroadcast.class, c -> {tickReact();});
 		sendBroadcast(new TickBroadcast(counter));
 	}
@@ -46,7 +88,12 @@ public class TimeService extends MicroService{
 	private void tickReact() {
 		if (!isTimeOver()) {
 			try {
-				Thread.sleep(speed);
+				if (checkpointInterval > 0 && counter % checkpointInterval == 0)
+					checkpoint();
+				long delay = startTime + TimeUnit.MILLISECONDS.toNanos((long) (counter - firstTick + 1) * speed)
+						- System.nanoTime();
+				if (delay > 0)
+					TimeUnit.NANOSECONDS.sleep(delay);
 				counter++;
 				sendBroadcast(new TickBroadcast(counter));
 			}
@@ -59,4 +106,26 @@ public class TimeService extends MicroService{
 		}
 	}
 
+	/**
+	 * Brings the services to a quiescent state after the current tick, writes the snapshot and releases them
+	 */
+	private void checkpoint() {
+		long sentBeforeLastRound = 0;
+		for (int round = 1; round <= CHECKPOINT_ROUNDS; round++) {
+			sentBeforeLastRound = sentMessages.getAsLong();
+			sendBroadcast(new CheckpointBroadcast(counter, round == CHECKPOINT_ROUNDS, checkpointPhaser));
+			checkpointPhaser.arriveAndAwaitAdvance();
+		}
+		try {
+			long unhandled = sentMessages.getAsLong() - sentBeforeLastRound - 1;
+			if (unhandled == 0)
+				checkpointWriter.call(counter);
+			else
+				System.err.println("The snapshot of tick " + counter + " was not written: the services sent " + unhandled
+						+ " messages after " + CHECKPOINT_ROUNDS + " checkpoint rounds, so they were not quiescent");
+		} finally {
+			checkpointPhaser.arriveAndAwaitAdvance();
+		}
+	}
+
 }
@@ -0,0 +1,251 @@
+package bgu.spl.mics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Connects two {@link RemoteMessageBus}es over the loopback interface: {@code sender} connects to {@code receiver}.
+ */
+public class RemoteMessageBusTest {
+
+    private static final long TIMEOUT = 5000;
+
+    private RemoteMessageBus sender;
+    private RemoteMessageBus receiver;
+
+    @Before
+    public void setUp() throws Exception {
+        sender = new RemoteMessageBus(new MessageBusImpl(), codecs(), new TextResultCodec());
+        receiver = new RemoteMessageBus(new MessageBusImpl(), codecs(), new TextResultCodec());
+        int port = receiver.listen(0);
+        sender.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), TIMEOUT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sender.close();
+        receiver.close();
+    }
+
+    @Test(timeout = 10000)
+    public void testEventIsRoutedToRemoteSubscriberAndResolvesFuture() throws Exception {
+        MicroService remote = register(receiver, "remote");
+        receiver.subscribeEvent(TextEvent.class, remote);
+        announce();
+
+        TextEvent ping = new TextEvent("ping");
+        Future<String> future = sender.sendEvent(ping);
+        TextEvent received = (TextEvent) receiver.awaitMessage(remote);
+        assertEquals("ping", received.getText());
+        assertFalse(future.isDone());
+        assertSame(future, sender.getFuture(ping));
+        receiver.complete(received, "pong");
+        assertEquals("pong", future.get(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void testEventsAlternateBetweenLocalAndRemoteSubscribers() throws Exception {
+        MicroService local = register(sender, "local");
+        MicroService remote = register(receiver, "remote");
+        sender.subscribeEvent(TextEvent.class, local);
+        receiver.subscribeEvent(TextEvent.class, remote);
+        announce();
+
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        for (int i = 0; i < 4; i++)
+            futures.add(sender.sendEvent(new TextEvent("event " + i)));
+        List<TextEvent> handledLocally = Arrays.asList((TextEvent) sender.awaitMessage(local),
+                (TextEvent) sender.awaitMessage(local));
+        List<TextEvent> handledRemotely = Arrays.asList((TextEvent) receiver.awaitMessage(remote),
+                (TextEvent) receiver.awaitMessage(remote));
+        for (TextEvent event : handledLocally)
+            sender.complete(event, "local " + event.getText());
+        for (TextEvent event : handledRemotely)
+            receiver.complete(event, "remote " + event.getText());
+
+        int remoteResults = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            String result = futures.get(i).get(TIMEOUT, TimeUnit.MILLISECONDS);
+            assertTrue(result, result.endsWith("event " + i));
+            if (result.startsWith("remote"))
+                remoteResults++;
+        }
+        assertEquals(2, remoteResults);
+    }
+
+    @Test(timeout = 10000)
+    public void testBroadcastReachesEveryLocalAndRemoteSubscriber() throws Exception {
+        MicroService local = register(sender, "local");
+        MicroService first = register(receiver, "first");
+        MicroService second = register(receiver, "second");
+        sender.subscribeBroadcast(TextBroadcast.class, local);
+        receiver.subscribeBroadcast(TextBroadcast.class, first);
+        receiver.subscribeBroadcast(TextBroadcast.class, second);
+        announce();
+
+        sender.sendBroadcast(new TextBroadcast("news"));
+        assertEquals("news", ((TextBroadcast) sender.awaitMessage(local)).getText());
+        assertEquals("news", ((TextBroadcast) receiver.awaitMessage(first)).getText());
+        assertEquals("news", ((TextBroadcast) receiver.awaitMessage(second)).getText());
+    }
+
+    @Test(timeout = 10000)
+    public void testFramesLargerThanTheConnectionBuffersArrive() throws Exception {
+        MicroService remote = register(receiver, "remote");
+        receiver.subscribeEvent(TextEvent.class, remote);
+        announce();
+
+        char[] chars = new char[200 * 1024];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+        Future<String> future = sender.sendEvent(new TextEvent(large));
+        TextEvent received = (TextEvent) receiver.awaitMessage(remote);
+        assertEquals(large, received.getText());
+        receiver.complete(received, large + "!");
+        assertEquals(large + "!", future.get(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void testEventsInFlightToALostPeerCompleteWithNull() throws Exception {
+        MicroService remote = register(receiver, "remote");
+        receiver.subscribeEvent(TextEvent.class, remote);
+        announce();
+        List<Object> completed = new ArrayList<Object>();
+        CountDownLatch done = new CountDownLatch(1);
+        sender.setCompletionHandler((event, future, result) -> {
+            completed.add(event);
+            completed.add(result);
+            done.countDown();
+        });
+
+        TextEvent lost = new TextEvent("lost");
+        Future<String> future = sender.sendEvent(lost);
+        receiver.awaitMessage(remote);
+        receiver.close();
+        assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(Arrays.asList(lost, null), completed);
+        assertFalse(future.isDone());
+        assertNull(sender.getFuture(lost));
+    }
+
+    @Test(timeout = 10000)
+    public void testMessagesWithoutCodecStayLocal() throws Exception {
+        MicroService local = register(sender, "local");
+        sender.subscribeEvent(LocalEvent.class, local);
+        announce();
+
+        Future<String> future = sender.sendEvent(new LocalEvent());
+        LocalEvent received = (LocalEvent) sender.awaitMessage(local);
+        sender.complete(received, "done");
+        assertEquals("done", future.get(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Makes the sender wait until it knows every subscription of the receiver
+     */
+    private void announce() throws InterruptedException {
+        receiver.markReady();
+        assertTrue(sender.awaitReadyPeers(TIMEOUT));
+    }
+
+    private static MicroService register(MessageBus bus, String name) {
+        MicroService service = new MicroService(name) {
+            @Override
+            protected void initialize() {}
+        };
+        bus.register(service);
+        return service;
+    }
+
+    private static MessageCodecs codecs() {
+        return new MessageCodecs().register(new TextEventCodec()).register(new TextBroadcastCodec());
+    }
+
+    private static void writeText(String text, ByteBuffer out) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        Varint.writeInt(out, bytes.length);
+        out.put(bytes);
+    }
+
+    private static String readText(ByteBuffer in) {
+        byte[] bytes = new byte[Varint.readInt(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static class TextEvent implements Event<String> {
+
+        private final String text;
+
+        public TextEvent(String text) {
+            this.text = text;
+        }
+
+        public String getText() {return text;}
+    }
+
+    public static class TextBroadcast implements Broadcast {
+
+        private final String text;
+
+        public TextBroadcast(String text) {
+            this.text = text;
+        }
+
+        public String getText() {return text;}
+    }
+
+    public static class LocalEvent implements Event<String> {}
+
+    private static class TextEventCodec implements MessageCodec<TextEvent> {
+
+        @Override
+        public Class<TextEvent> getType() {return TextEvent.class;}
+
+        @Override
+        public void encode(TextEvent message, ByteBuffer out) {writeText(message.getText(), out);}
+
+        @Override
+        public TextEvent decode(ByteBuffer in) {return new TextEvent(readText(in));}
+    }
+
+    private static class TextBroadcastCodec implements MessageCodec<TextBroadcast> {
+
+        @Override
+        public Class<TextBroadcast> getType() {return TextBroadcast.class;}
+
+        @Override
+        public void encode(TextBroadcast message, ByteBuffer out) {writeText(message.getText(), out);}
+
+        @Override
+        public TextBroadcast decode(ByteBuffer in) {return new TextBroadcast(readText(in));}
+    }
+
+    private static class TextResultCodec implements ResultCodec {
+
+        @Override
+        public void encode(Object result, ByteBuffer out) {
+            out.put((byte) (result == null ? 0 : 1));
+            if (result != null)
+                writeText((String) result, out);
+        }
+
+        @Override
+        public Object decode(ByteBuffer in) {
+            return in.get() == 0 ? null : readText(in);
+        }
+    }
+}
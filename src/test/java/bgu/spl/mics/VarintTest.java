@@ -0,0 +1,104 @@
+package bgu.spl.mics;
+
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class VarintTest {
+
+    private static final int[] INTS = {0, 1, 127, 128, 255, 300, 16383, 16384, Integer.MAX_VALUE, -1, -128,
+            Integer.MIN_VALUE};
+
+    private static ByteBuffer encodeInt(int value) {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        Varint.writeInt(buffer, value);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void intsTakeOneByteForEverySevenBits() {
+        assertEquals(1, encodeInt(0).remaining());
+        assertEquals(1, encodeInt(127).remaining());
+        assertEquals(2, encodeInt(128).remaining());
+        assertEquals(2, encodeInt(16383).remaining());
+        assertEquals(3, encodeInt(16384).remaining());
+        assertEquals(5, encodeInt(Integer.MAX_VALUE).remaining());
+        // Negative values are written as unsigned, so they take the maximal length
+        assertEquals(5, encodeInt(-1).remaining());
+        assertEquals(5, encodeInt(Integer.MIN_VALUE).remaining());
+    }
+
+    @Test
+    public void boundaryBytesAreExact() {
+        assertEquals((byte) 0x7F, encodeInt(127).get(0));
+        ByteBuffer encoded = encodeInt(128);
+        assertEquals((byte) 0x80, encoded.get(0));
+        assertEquals((byte) 0x01, encoded.get(1));
+    }
+
+    @Test
+    public void intsRoundTrip() {
+        for (int value : INTS) {
+            ByteBuffer encoded = encodeInt(value);
+            assertEquals(value, Varint.readInt(encoded));
+            assertFalse("Bytes left after " + value, encoded.hasRemaining());
+        }
+    }
+
+    @Test
+    public void longsRoundTrip() {
+        long[] values = {0, 127, 128, Integer.MAX_VALUE, 1L << 35, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+        for (long value : values) {
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            Varint.writeLong(buffer, value);
+            buffer.flip();
+            assertEquals(value, Varint.readLong(buffer));
+            assertFalse("Bytes left after " + value, buffer.hasRemaining());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        Varint.writeLong(buffer, -1);
+        assertEquals(10, buffer.position());
+    }
+
+    @Test
+    public void zigZagKeepsSmallMagnitudesShort() {
+        assertEquals(0, Varint.zigZag(0));
+        assertEquals(1, Varint.zigZag(-1));
+        assertEquals(2, Varint.zigZag(1));
+        assertEquals(3, Varint.zigZag(-2));
+        assertEquals(-2, Varint.zigZag(Integer.MAX_VALUE));
+        assertEquals(-1, Varint.zigZag(Integer.MIN_VALUE));
+        assertEquals(1, encodeInt(Varint.zigZag(-64)).remaining());
+        for (int value : INTS) {
+            assertEquals(value, Varint.unZigZag(Varint.zigZag(value)));
+            assertEquals(value, Varint.unZigZag(Varint.readInt(encodeInt(Varint.zigZag(value)))));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void intsLongerThanFiveBytesAreMalformed() {
+        Varint.readInt(ByteBuffer.wrap(new byte[] {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0}));
+    }
+
+    @Test(expected = BufferUnderflowException.class)
+    public void truncatedIntsUnderflow() {
+        Varint.readInt(ByteBuffer.wrap(new byte[] {(byte) 0x80, (byte) 0x80}));
+    }
+
+    @Test
+    public void overflowingIntsThrow() {
+        ByteBuffer buffer = ByteBuffer.allocate(2);
+        try {
+            Varint.writeInt(buffer, Integer.MAX_VALUE);
+            fail("A 5 byte value was written into 2 bytes");
+        } catch (BufferOverflowException expected) {
+        }
+    }
+}
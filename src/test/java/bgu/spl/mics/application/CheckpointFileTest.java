@@ -0,0 +1,252 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.BusContext;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageBus;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.messages.ModelEvent;
+import bgu.spl.mics.application.messages.ProcessModelEvent;
+import bgu.spl.mics.application.messages.PublishResultsEvent;
+import bgu.spl.mics.application.messages.TerminatorBroadcast;
+import bgu.spl.mics.application.messages.TestModelEvent;
+import bgu.spl.mics.application.messages.TrainModelEvent;
+import bgu.spl.mics.application.objects.CPU;
+import bgu.spl.mics.application.objects.Cluster;
+import bgu.spl.mics.application.objects.GPU;
+import bgu.spl.mics.application.objects.Model;
+import bgu.spl.mics.application.objects.Student;
+import bgu.spl.mics.application.services.StartupBarrier;
+import bgu.spl.mics.application.services.StudentService;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Takes a snapshot of a simulation whose {@link Model}s are in every stage of their work, restores it into the
+ * objects of a second simulation loaded from the same input, and checks that nothing was lost on the way.
+ */
+public class CheckpointFileTest {
+
+    private static final long TIMEOUT = 5000;
+    private static final int SNAPSHOT_TICK = 42;
+    private static final String INPUT = "{\"Students\": [{\"name\": \"Simba\", \"department\": \"CS\", \"status\": \"MSc\","
+            + " \"models\": ["
+            + "{\"name\": \"Tested\", \"type\": \"Tabular\", \"size\": 4000},"
+            + "{\"name\": \"Trained\", \"type\": \"Tabular\", \"size\": 4000},"
+            + "{\"name\": \"Training\", \"type\": \"Images\", \"size\": 100000},"
+            + "{\"name\": \"Processed\", \"type\": \"Tabular\", \"size\": 4000},"
+            + "{\"name\": \"Processing\", \"type\": \"Images\", \"size\": 100000},"
+            + "{\"name\": \"Sent\", \"type\": \"Text\", \"size\": 4000},"
+            + "{\"name\": \"Waiting\", \"type\": \"Text\", \"size\": 4000}]}],"
+            + " \"GPUS\": [\"RTX3090\", \"GTX1080\"], \"CPUS\": [8, 4],"
+            + " \"Conferences\": [{\"name\": \"ICML\", \"date\": 500}],"
+            + " \"Seed\": 7, \"TickTime\": 1, \"Duration\": 1000}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File input;
+
+    /**
+     * The objects of a simulation loaded from the input
+     */
+    private static class Simulation {
+
+        private final Cluster cluster = new Cluster();
+        private final InputLoader loader;
+        private final CheckpointFile checkpoints;
+        private final Map<String, Model> models = new HashMap<String, Model>();
+
+        Simulation(File input) throws IOException {
+            loader = InputLoader.load(input, cluster);
+            checkpoints = new CheckpointFile(loader, cluster);
+            for (Student student : loader.getStudents()) {
+                for (Model model : student.getModels())
+                    models.put(model.getName(), model);
+            }
+        }
+
+        Model model(String name) {return models.get(name);}
+
+        GPU gpu() {return loader.getGpus().getFirst();}
+
+        void tickCpus(int ticks) {
+            for (int i = 0; i < ticks; i++) {
+                for (CPU cpu : loader.getCpus())
+                    cpu.tick();
+            }
+        }
+
+        void tickGpus(int ticks) {
+            for (int i = 0; i < ticks; i++) {
+                for (GPU gpu : loader.getGpus())
+                    gpu.tick();
+            }
+        }
+
+        void startProcessing(Model model) {
+            model.sendToProcessing();
+            gpu().startProcessing(model);
+        }
+
+        void startTraining(Model model) {
+            model.sendToTraining();
+            cluster.submitTraining(model);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        input = folder.newFile("input.json");
+        Files.write(input.toPath(), INPUT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Brings every {@link Model} to the stage its name tells, the way the services would
+     */
+    private static void runUntilMidway(Simulation run) {
+        for (String name : Arrays.asList("Tested", "Trained", "Training", "Processed"))
+            run.startProcessing(run.model(name));
+        int ticks = 0;
+        while (!run.model("Training").getData().isProcessed()) {
+            assertTrue("The data was not processed in time", ticks++ < 10000);
+            run.tickCpus(1);
+        }
+        run.startTraining(run.model("Tested"));
+        run.startTraining(run.model("Trained"));
+        while (!run.model("Tested").isTrained() || !run.model("Trained").isTrained()) {
+            assertTrue("The models were not trained in time", ticks++ < 20000);
+            run.tickGpus(1);
+        }
+        run.model("Tested").sendToTesting();
+        run.gpu().testModel(run.model("Tested"));
+
+        run.startTraining(run.model("Training"));
+        run.tickGpus(10);
+        run.model("Processed").sendToTraining();
+
+        run.startProcessing(run.model("Processing"));
+        run.tickCpus(10);
+        run.model("Sent").sendToProcessing();
+    }
+
+    private File snapshotMidway() throws IOException {
+        Simulation run = new Simulation(input);
+        runUntilMidway(run);
+        assertTrue(run.model("Training").isQueuedForTraining());
+        assertFalse(run.model("Training").isTrained());
+        assertTrue(run.model("Processing").getData().isDispatched());
+        assertFalse(run.model("Processing").getData().isProcessed());
+        File snapshot = folder.newFile();
+        run.checkpoints.write(snapshot, SNAPSHOT_TICK);
+        return snapshot;
+    }
+
+    @Test
+    public void aRestoredSimulationIsSavedByteForByte() throws IOException {
+        File first = snapshotMidway();
+        Simulation restored = new Simulation(input);
+        assertEquals(SNAPSHOT_TICK, restored.checkpoints.restore(first));
+        File second = folder.newFile();
+        restored.checkpoints.write(second, SNAPSHOT_TICK);
+        assertArrayEquals(Files.readAllBytes(first.toPath()), Files.readAllBytes(second.toPath()));
+    }
+
+    /**
+     * Marks the end of the messages sent before it
+     */
+    private static class Marker implements Broadcast {}
+
+    /**
+     * @return the messages {@code recipient} got before the next {@link Marker}
+     */
+    private static List<Message> drain(MessageBus bus, MicroService recipient) throws InterruptedException {
+        bus.sendBroadcast(new Marker());
+        List<Message> messages = new ArrayList<Message>();
+        Message message = bus.awaitMessage(recipient);
+        while (!(message instanceof Marker)) {
+            messages.add(message);
+            message = bus.awaitMessage(recipient);
+        }
+        return messages;
+    }
+
+    private static String describe(Message message) {
+        return message.getClass().getSimpleName() + " " + ((ModelEvent) message).getModel().getName();
+    }
+
+    @Test(timeout = 20000)
+    public void aRestoredStudentResumesEveryModelInItsStage() throws Exception {
+        File snapshot = snapshotMidway();
+        Simulation restored = new Simulation(input);
+        restored.checkpoints.restore(snapshot);
+
+        MessageBusImpl bus = new MessageBusImpl();
+        MessageBus previous = BusContext.bind(bus);
+        MicroService handlers;
+        StudentService service;
+        try {
+            handlers = new MicroService("Handlers") {
+                @Override
+                protected void initialize() {}
+            };
+            service = new StudentService(restored.loader.getStudents().getFirst());
+        } finally {
+            BusContext.restore(previous);
+        }
+        bus.register(handlers);
+        bus.subscribeEvent(ProcessModelEvent.class, handlers);
+        bus.subscribeEvent(TrainModelEvent.class, handlers);
+        bus.subscribeEvent(TestModelEvent.class, handlers);
+        bus.subscribeEvent(PublishResultsEvent.class, handlers);
+        bus.subscribeBroadcast(Marker.class, handlers);
+        StartupBarrier startup = new StartupBarrier(1);
+        service.joinStartup(startup);
+        Thread thread = new Thread(service, "Student Simba");
+        thread.start();
+        assertTrue(startup.awaitAll(TIMEOUT));
+
+        // The work that was not picked up is sent again, the work under way is awaited on the restored objects
+        List<String> resent = new ArrayList<String>();
+        for (Message message : drain(bus, handlers))
+            resent.add(describe(message));
+        List<String> expected = new ArrayList<String>();
+        if (restored.model("Tested").isGood())
+            expected.add("PublishResultsEvent Tested");
+        expected.addAll(Arrays.asList("TestModelEvent Trained", "TrainModelEvent Processed", "ProcessModelEvent Sent"));
+        assertEquals(expected, resent);
+
+        // The models under way advance once the restored devices finish their work
+        List<String> advanced = new ArrayList<String>();
+        while (advanced.size() < 2) {
+            restored.tickCpus(1);
+            restored.tickGpus(1);
+            for (Message message : drain(bus, handlers))
+                advanced.add(describe(message));
+        }
+        advanced.sort(null);
+        assertEquals(Arrays.asList("TestModelEvent Training", "TrainModelEvent Processing"), advanced);
+
+        bus.sendBroadcast(new TerminatorBroadcast());
+        thread.join(TIMEOUT);
+        assertFalse(thread.isAlive());
+    }
+}
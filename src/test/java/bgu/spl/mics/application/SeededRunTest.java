@@ -0,0 +1,85 @@
+package bgu.spl.mics.application;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the same seeded input twice and checks that every {@link bgu.spl.mics.application.objects.Model} gets the
+ * same test results, although the {@link bgu.spl.mics.application.objects.GPU} testing it depends on timing
+ */
+public class SeededRunTest {
+
+    private static final int STUDENTS = 3;
+    private static final int MODELS_PER_STUDENT = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File writeInput(long seed, File report) throws IOException {
+        StringBuilder students = new StringBuilder();
+        for (int s = 0; s < STUDENTS; s++) {
+            if (s > 0)
+                students.append(", ");
+            students.append("{\"name\": \"Student ").append(s).append("\", \"department\": \"CS\", \"status\": \"")
+                    .append(s % 2 == 0 ? "MSc" : "PhD").append("\", \"models\": [");
+            for (int m = 0; m < MODELS_PER_STUDENT; m++) {
+                if (m > 0)
+                    students.append(", ");
+                students.append("{\"name\": \"Model ").append(s).append('.').append(m)
+                        .append("\", \"type\": \"Tabular\", \"size\": ").append(5000 * (1 + (s + m) % 3)).append('}');
+            }
+            students.append("]}");
+        }
+        String input = "{\"Students\": [" + students + "], \"GPUS\": [\"RTX3090\", \"RTX2080\", \"GTX1080\"], "
+                + "\"CPUS\": [32, 16], \"Conferences\": [], \"Seed\": " + seed + ", \"TickTime\": 1, "
+                + "\"Duration\": 2000, \"JsonReportFile\": \"" + report.getAbsolutePath().replace("\\", "\\\\") + "\"}";
+        File file = folder.newFile();
+        Files.write(file.toPath(), input.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * @return the test results of every trained model of the run, by the name of the model
+     */
+    private Map<String, String> run(long seed) throws IOException {
+        File report = new File(folder.getRoot(), "report-" + System.nanoTime() + ".json");
+        File input = writeInput(seed, report);
+        assertTrue(CRMSRunner.run(input, folder.newFile(), RuntimeContext.create()));
+        Map<String, String> results = new TreeMap<String, String>();
+        try (Reader reader = Files.newBufferedReader(report.toPath(), StandardCharsets.UTF_8)) {
+            JsonObject root = new JsonParser().parse(reader).getAsJsonObject();
+            for (JsonElement student : root.getAsJsonArray("students")) {
+                for (JsonElement model : student.getAsJsonObject().getAsJsonArray("trainedModels")) {
+                    JsonObject fields = model.getAsJsonObject();
+                    results.put(fields.get("name").getAsString(), fields.get("results").getAsString());
+                }
+            }
+        }
+        return results;
+    }
+
+    @Test
+    public void seededRunsGetTheSameTestResults() throws IOException {
+        Map<String, String> first = run(42);
+        Map<String, String> second = run(42);
+        assertEquals(STUDENTS * MODELS_PER_STUDENT, first.size());
+        for (Map.Entry<String, String> result : first.entrySet())
+            assertTrue(result.getKey() + " was not tested", result.getValue().matches("Good|Bad"));
+        assertEquals(first, second);
+    }
+}
@@ -0,0 +1,216 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.Future;
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageCodecs;
+import bgu.spl.mics.ResultCodec;
+import bgu.spl.mics.application.objects.Data;
+import bgu.spl.mics.application.objects.Model;
+import bgu.spl.mics.application.objects.ModelProgress;
+import bgu.spl.mics.application.objects.Student;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Encodes every registered message in one process and decodes it in another, each process having its own copy
+ * of the same {@link Student}s and {@link Model}s
+ */
+public class ApplicationCodecsTest {
+
+    private List<Student> senderStudents;
+    private List<Student> receiverStudents;
+    private MessageCodecs sender;
+    private MessageCodecs receiver;
+    private ResultCodec senderResults;
+    private ResultCodec receiverResults;
+    private ByteBuffer buffer;
+
+    private static List<Student> roster() {
+        List<Student> students = new ArrayList<Student>();
+        for (int s = 0; s < 3; s++) {
+            Student student = new Student("Student " + s, "CS", s == 0 ? "PhD" : "MSc");
+            ConcurrentLinkedDeque<Model> models = new ConcurrentLinkedDeque<Model>();
+            for (int m = 0; m < 2; m++)
+                models.add(new Model("Model " + s + "." + m, new Data("Images", 2000), student));
+            student.setModels(models);
+            students.add(student);
+        }
+        return students;
+    }
+
+    @Before
+    public void setUp() {
+        senderStudents = roster();
+        receiverStudents = roster();
+        ModelDirectory senderDirectory = new ModelDirectory(senderStudents);
+        ModelDirectory receiverDirectory = new ModelDirectory(receiverStudents);
+        sender = ApplicationCodecs.create(senderDirectory);
+        receiver = ApplicationCodecs.create(receiverDirectory);
+        senderResults = ApplicationCodecs.results(senderDirectory);
+        receiverResults = ApplicationCodecs.results(receiverDirectory);
+        buffer = ByteBuffer.allocate(256);
+    }
+
+    private Message roundTrip(Message message) {
+        buffer.clear();
+        sender.encode(message, buffer);
+        buffer.flip();
+        Message decoded = receiver.decode(buffer);
+        assertFalse("Bytes left after " + message.getClass().getSimpleName(), buffer.hasRemaining());
+        assertSame(message.getClass(), decoded.getClass());
+        return decoded;
+    }
+
+    private Model senderModel(int student, int model) {
+        return new ArrayList<Model>(senderStudents.get(student).getModels()).get(model);
+    }
+
+    private Model receiverModel(int student, int model) {
+        return new ArrayList<Model>(receiverStudents.get(student).getModels()).get(model);
+    }
+
+    /**
+     * Makes a {@link Model} tested, good and published
+     */
+    private static void testAndPublish(Model model) {
+        model.applyProgress(ModelProgress.read(ByteBuffer.wrap(new byte[] {3, 1, 1})));
+    }
+
+    @Test
+    public void ticksRoundTrip() {
+        for (int time : new int[] {1, 127, 128, Integer.MAX_VALUE})
+            assertEquals(time, ((TickBroadcast) roundTrip(new TickBroadcast(time))).getTime());
+    }
+
+    @Test
+    public void terminatorsRoundTrip() {
+        roundTrip(new TerminatorBroadcast());
+    }
+
+    @Test
+    public void modelEventsRoundTripWithTheirProgress() {
+        List<Function<Model, ModelEvent>> constructors = Arrays.<Function<Model, ModelEvent>>asList(
+                ProcessModelEvent::new, TrainModelEvent::new, TestModelEvent::new, PublishResultsEvent::new);
+        for (int i = 0; i < constructors.size(); i++) {
+            Model sent = senderModel(i % 3, i % 2);
+            testAndPublish(sent);
+            ModelEvent decoded = (ModelEvent) roundTrip(constructors.get(i).apply(sent));
+            Model local = receiverModel(i % 3, i % 2);
+            assertSame(local, decoded.getModel());
+            // Decoding leaves the model alone, the owning service applies the progress
+            assertTrue(local.isPreTrained());
+            decoded.applyProgress();
+            assertTrue(local.isTested());
+            assertTrue(local.isGood());
+            assertTrue(local.isPublished());
+            assertEquals(local.getData().getSize(), local.getTrained());
+        }
+    }
+
+    @Test
+    public void conferencesRoundTrip() {
+        Student[] authors = {senderStudents.get(2), senderStudents.get(0)};
+        int[] publications = {3, 1};
+        PublishConferenceBroadcast decoded =
+                (PublishConferenceBroadcast) roundTrip(new PublishConferenceBroadcast(authors, publications));
+        assertEquals(2, decoded.getNumberOfAuthors());
+        assertSame(receiverStudents.get(2), decoded.getAuthor(0));
+        assertEquals(3, decoded.getAuthorPublications(0));
+        assertSame(receiverStudents.get(0), decoded.getAuthor(1));
+        assertEquals(1, decoded.getAuthorPublications(1));
+        assertEquals(4, decoded.getTotalPublications());
+        assertEquals(1, decoded.getDigest(receiverStudents.get(0)).getPublications());
+        assertEquals(3, decoded.getDigest(receiverStudents.get(0)).getPapersRead());
+    }
+
+    @Test
+    public void checkpointsAreNotEncodable() {
+        assertFalse(sender.canEncode(new CheckpointBroadcast(1, false, null)));
+    }
+
+    @Test
+    public void resultsResolveTheLocalModel() {
+        Model sent = senderModel(1, 1);
+        testAndPublish(sent);
+        buffer.clear();
+        senderResults.encode(sent, buffer);
+        buffer.flip();
+        Object decoded = receiverResults.decode(buffer);
+        assertFalse(buffer.hasRemaining());
+
+        Model local = receiverModel(1, 1);
+        TrainModelEvent event = new TrainModelEvent(local);
+        List<Model> continued = new ArrayList<Model>();
+        event.then(continued::add);
+        Future<Model> future = new Future<Model>();
+        ApplicationCodecs.completions().completed(event, future, decoded);
+        assertTrue(future.isDone());
+        assertSame(local, future.get());
+        assertEquals(Arrays.asList(local), continued);
+        assertTrue(local.isPreTrained());
+        event.applyProgress();
+        assertTrue(local.isTested());
+        assertTrue(local.isPublished());
+    }
+
+    @Test
+    public void missingResultsCompleteWithNull() {
+        buffer.clear();
+        senderResults.encode(null, buffer);
+        buffer.flip();
+        Object decoded = receiverResults.decode(buffer);
+        assertFalse(buffer.hasRemaining());
+
+        TestModelEvent event = new TestModelEvent(receiverModel(0, 0));
+        List<Model> continued = new ArrayList<Model>();
+        event.then(continued::add);
+        Future<Model> future = new Future<Model>();
+        ApplicationCodecs.completions().completed(event, future, decoded);
+        // A Future is never resolved with null, the continuations learn that the event could not be handled
+        assertFalse(future.isDone());
+        assertTrue(event.isCompleted());
+        assertNull(event.getResult());
+        assertEquals(Arrays.asList((Model) null), continued);
+    }
+
+    @Test
+    public void overflowRestoresThePosition() {
+        Student[] authors = senderStudents.toArray(new Student[0]);
+        PublishConferenceBroadcast conference = new PublishConferenceBroadcast(authors, new int[] {200, 300, 400});
+        Message[] messages = {new TickBroadcast(Integer.MAX_VALUE), new TrainModelEvent(senderModel(2, 1)), conference};
+        for (Message message : messages) {
+            ByteBuffer full = ByteBuffer.allocate(64);
+            sender.encode(message, full);
+            int size = full.position();
+            for (int room = 0; room < size; room++) {
+                ByteBuffer small = ByteBuffer.allocate(3 + room);
+                small.position(3);
+                try {
+                    sender.encode(message, small);
+                    fail(message.getClass().getSimpleName() + " of " + size + " bytes was encoded into " + room);
+                } catch (BufferOverflowException expected) {
+                }
+                assertEquals(3, small.position());
+            }
+            ByteBuffer exact = ByteBuffer.allocate(3 + size);
+            exact.position(3);
+            sender.encode(message, exact);
+            assertFalse(exact.hasRemaining());
+        }
+    }
+}
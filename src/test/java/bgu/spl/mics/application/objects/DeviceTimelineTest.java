@@ -0,0 +1,96 @@
+package bgu.spl.mics.application.objects;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceTimelineTest {
+
+    private static final int TICKS = 5000;
+
+    /**
+     * A device that is busy in long stretches, with a queue that changes by a few items almost every tick
+     */
+    private static DeviceTimeline record(boolean[] busy, int[] depths) {
+        SplittableRandom random = new SplittableRandom(7);
+        DeviceTimeline timeline = new DeviceTimeline();
+        boolean state = true;
+        int depth = 0;
+        for (int tick = 0; tick < TICKS; tick++) {
+            if (random.nextInt(200) == 0)
+                state = !state;
+            depth = state ? Math.max(0, depth + random.nextInt(-3, 5)) : 0;
+            busy[tick] = state;
+            depths[tick] = depth;
+            timeline.record(state, depth);
+        }
+        return timeline;
+    }
+
+    @Test
+    public void runsReplayTheBusyStateAndTheSampledDepth() {
+        boolean[] busy = new boolean[TICKS];
+        int[] depths = new int[TICKS];
+        DeviceTimeline timeline = record(busy, depths);
+        assertEquals(TICKS, timeline.getNumberOfTicks());
+
+        int next = 0;
+        for (int[] run : timeline.getRuns()) {
+            assertEquals(next, run[0]);
+            assertTrue(run[1] > 0);
+            for (int tick = run[0]; tick < run[0] + run[1]; tick++) {
+                assertEquals("Busy state of tick " + tick, busy[tick] ? 1 : 0, run[2]);
+                int tolerance = Math.max(1, run[3] / DeviceTimeline.DEPTH_CHANGE_RATIO);
+                assertTrue("Depth " + run[3] + " of tick " + tick + " was " + depths[tick],
+                        depths[tick] == run[3] || (depths[tick] != 0 && Math.abs(depths[tick] - run[3]) < tolerance));
+            }
+            next = run[0] + run[1];
+        }
+        assertEquals(TICKS, next);
+    }
+
+    @Test
+    public void aFluctuatingQueueDoesNotSplitTheBusyRuns() {
+        DeviceTimeline timeline = record(new boolean[TICKS], new int[TICKS]);
+        int stateChanges = 0;
+        int[][] runs = timeline.getRuns();
+        for (int i = 1; i < runs.length; i++) {
+            if (runs[i][2] != runs[i - 1][2])
+                stateChanges++;
+        }
+        assertEquals(stateChanges + 1, timeline.getNumberOfBusyRuns());
+        assertTrue(timeline.getNumberOfDepthSamples() < TICKS / 4);
+    }
+
+    @Test
+    public void restoredTimelinesAreEqual() throws IOException {
+        DeviceTimeline timeline = record(new boolean[TICKS], new int[TICKS]);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (StateOutput out = new StateOutput(Channels.newChannel(bytes), new ArrayList<Model>())) {
+            timeline.saveState(out);
+        }
+        DeviceTimeline restored = new DeviceTimeline();
+        try (StateInput in = new StateInput(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())),
+                new ArrayList<Model>())) {
+            restored.restoreState(in);
+        }
+        assertEquals(timeline.getNumberOfTicks(), restored.getNumberOfTicks());
+        assertEquals(Arrays.deepToString(timeline.getRuns()), Arrays.deepToString(restored.getRuns()));
+
+        // A restored timeline keeps recording from where the saved one stopped
+        timeline.record(false, 0);
+        restored.record(false, 0);
+        assertArrayEquals(timeline.getRuns()[timeline.getRuns().length - 1],
+                restored.getRuns()[restored.getRuns().length - 1]);
+    }
+}
@@ -0,0 +1,84 @@
+package bgu.spl.mics.application.objects;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Trains a long {@link Model} on a single {@link GPU} and queues shorter ones behind it, checking that a paused
+ * {@link Model} resumes from its checkpoint instead of training its batches again.
+ */
+public class PreemptionTest {
+
+    private Cluster cluster;
+    private GPU gpu;
+    private Student student;
+
+    @Before
+    public void setUp() {
+        cluster = new Cluster();
+        gpu = new GPU(GPU.Type.RTX2080, cluster);
+        gpu.setPreemptionPolicy(PreemptionPolicy.byRemainingRatio(0.5));
+        student = new Student("Student", "CS", Student.Degree.MSc);
+    }
+
+    private Model model(String name, int batches) {
+        Data data = new Data(Data.Type.Images, Data.BATCH_SIZE * batches);
+        for (int i = 0; i < batches; i++)
+            data.processBatch(i);
+        return new Model(name, data, student);
+    }
+
+    private List<Model> trainAll(int models) {
+        int ticks = 0;
+        while (cluster.getStatisticsSnapshot().getModelsTrained().size() < models) {
+            assertTrue("The models were not trained in time", ticks++ < 10000);
+            gpu.tick();
+        }
+        return cluster.getStatisticsSnapshot().getModelsTrained();
+    }
+
+    private void tick(int ticks) {
+        for (int i = 0; i < ticks; i++)
+            gpu.tick();
+    }
+
+    @Test
+    public void aPausedModelResumesWithoutTrainingItsBatchesAgain() {
+        Model running = model("Running", 40);
+        Model waiting = model("Waiting", 4);
+        gpu.startTraining(running);
+        tick(21);
+        gpu.startTraining(waiting);
+
+        List<Model> trained = trainAll(2);
+        assertEquals(1, gpu.getPreemptions());
+        assertEquals(Arrays.asList(waiting, running), trained);
+        for (Model model : trained)
+            assertEquals(model.getData().getSize(), model.getTrained());
+        assertEquals(44, gpu.getStatistics().getBatches());
+        assertEquals(44 * gpu.timeToTrain(), cluster.getStatisticsSnapshot().getGpuTimeUsed());
+    }
+
+    @Test
+    public void theShortestWaitingModelIsConsideredUnderFifo() {
+        Model running = model("Running", 40);
+        Model longer = model("Longer", 40);
+        Model shorter = model("Shorter", 4);
+        gpu.startTraining(running);
+        tick(21);
+        // The first queued model is too long to pause the running one, the second is short enough
+        gpu.startTraining(longer);
+        gpu.startTraining(shorter);
+
+        List<Model> trained = trainAll(3);
+        assertEquals(1, gpu.getPreemptions());
+        assertEquals(Arrays.asList(shorter, running, longer), trained);
+        assertEquals(84, gpu.getStatistics().getBatches());
+    }
+}
@@ -0,0 +1,137 @@
+package bgu.spl.mics.application.objects;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Submits {@link Model}s to a {@link Cluster} from several threads while its {@link GPU}s tick, under every
+ * {@link TrainingPolicy}, and checks that every {@link Model} is trained exactly once.
+ */
+@RunWith(Parameterized.class)
+public class TrainingPolicyTest {
+
+    private static final int SUBMITTERS = 4;
+    private static final int MODELS_PER_SUBMITTER = 25;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> policies() {
+        return Arrays.asList(new Object[][] {
+                {"FIFO", TrainingPolicy.FIFO},
+                {"SJF", TrainingPolicy.SHORTEST_JOB_FIRST},
+                {"Priority", TrainingPolicy.DEGREE_PRIORITY}
+        });
+    }
+
+    private final TrainingPolicy policy;
+
+    public TrainingPolicyTest(String name, TrainingPolicy policy) {
+        this.policy = policy;
+    }
+
+    @Test
+    public void everyModelIsTrainedOnce() throws Exception {
+        trainConcurrently(1);
+    }
+
+    @Test
+    public void everyShardedModelIsTrainedOnce() throws Exception {
+        trainConcurrently(3);
+    }
+
+    private void trainConcurrently(int dataParallelism) throws Exception {
+        Cluster cluster = new Cluster();
+        ConcurrentLinkedDeque<GPU> gpus = new ConcurrentLinkedDeque<GPU>();
+        for (GPU.Type type : Arrays.asList(GPU.Type.RTX3090, GPU.Type.RTX2080, GPU.Type.GTX1080, GPU.Type.RTX2080)) {
+            GPU gpu = new GPU(type, cluster);
+            gpu.setTrainingPolicy(policy);
+            gpus.add(gpu);
+        }
+        cluster.setGpus(gpus);
+        cluster.setDataParallelism(dataParallelism);
+
+        List<List<Model>> submissions = new ArrayList<List<Model>>();
+        long totalBatches = 0;
+        for (int s = 0; s < SUBMITTERS; s++) {
+            Student student = new Student("Student " + s, "CS", s % 2 == 0 ? Student.Degree.MSc : Student.Degree.PhD);
+            List<Model> models = new ArrayList<Model>();
+            for (int m = 0; m < MODELS_PER_SUBMITTER; m++) {
+                Data data = new Data(Data.Type.Images, Data.BATCH_SIZE * (1 + (s * 7 + m * 3) % 12));
+                for (int i = 0; i < data.getNumberOfBatches(); i++)
+                    data.processBatch(i);
+                models.add(new Model("Model " + s + "." + m, data, student));
+                totalBatches += data.getNumberOfBatches();
+            }
+            submissions.add(models);
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch submitted = new CountDownLatch(SUBMITTERS);
+        for (List<Model> models : submissions) {
+            Thread submitter = new Thread(() -> {
+                try {
+                    start.await();
+                    for (Model model : models)
+                        cluster.submitTraining(model);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    submitted.countDown();
+                }
+            });
+            submitter.start();
+        }
+
+        // The GPUs tick while the models are still being submitted, as they do under their GPUServices
+        start.countDown();
+        while (!submitted.await(0, TimeUnit.MILLISECONDS)) {
+            for (GPU gpu : gpus)
+                gpu.tick();
+            Thread.yield();
+        }
+        long maxTicks = 4 * totalBatches;
+        long ticks = 0;
+        while (cluster.getStatisticsSnapshot().getModelsTrained().size() < SUBMITTERS * MODELS_PER_SUBMITTER) {
+            if (ticks++ > maxTicks)
+                fail("Only " + cluster.getStatisticsSnapshot().getModelsTrained().size() + " models were trained "
+                        + maxTicks + " ticks after the last submission");
+            for (GPU gpu : gpus)
+                gpu.tick();
+        }
+
+        Map<Model, Integer> timesTrained = new IdentityHashMap<Model, Integer>();
+        for (Model model : cluster.getStatisticsSnapshot().getModelsTrained())
+            timesTrained.merge(model, 1, Integer::sum);
+        for (List<Model> models : submissions) {
+            for (Model model : models) {
+                assertEquals(model.getName() + " was not trained exactly once", Integer.valueOf(1), timesTrained.get(model));
+                assertTrue(model.getName() + " is not trained", model.isTrained());
+                assertEquals(model.getData().getSize(), model.getTrained());
+            }
+        }
+        assertEquals(SUBMITTERS * MODELS_PER_SUBMITTER, timesTrained.size());
+
+        long batches = 0;
+        long gpuTime = 0;
+        for (GPU gpu : gpus) {
+            assertEquals(0, gpu.getCommittedTicks());
+            batches += gpu.getStatistics().getBatches();
+            gpuTime += gpu.getStatistics().getBatches() * gpu.timeToTrain();
+        }
+        assertEquals(totalBatches, batches);
+        assertEquals(gpuTime, cluster.getStatisticsSnapshot().getGpuTimeUsed());
+    }
+}